@@ -1,6 +1,8 @@
 package CrawlerAndQueryEngine;
 
+import java.io.*;
 import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
 import java.net.*;
 import org.attoparser.simple.*;
 
@@ -9,6 +11,11 @@ import org.attoparser.simple.*;
  * responsible for building the actual web index.
  */
 public class CrawlingMarkupHandler extends AbstractSimpleMarkupHandler {
+    private static final LatencyHistogram INDEX_TIME = Metrics.histogram(
+            "tsoogle_crawl_stage_seconds{stage=\"index\"}",
+            "Time spent in each stage of crawling a page");
+    private static final LongAdder DUPLICATES = Metrics.counter(
+            "tsoogle_crawl_duplicates_total", "Pages skipped as near-duplicates of indexed pages");
 
     //The WebIndex object used to index all pages
     private WebIndex index = new WebIndex();
@@ -20,12 +27,36 @@ public class CrawlingMarkupHandler extends AbstractSimpleMarkupHandler {
     private HashMap<URL, Page> pastPages = new HashMap<>();
     //New URL's that still need to be visited
     private List<URL> newURLS = new LinkedList<>();
+    //Decides which URL's this crawler owns in a partitioned crawl, or null
+    private HostPartitioner partitioner = null;
+    //Number of links found to each URL owned by another crawler
+    private Map<URL, Integer> foreignLinks = new HashMap<>();
     //The URL currently being parsed
     private Page currentPage;
+    //SimHash fingerprint of the words on the current page
+    private SimHash simHash = new SimHash();
+    //Fingerprints of every indexed page, used to skip near-duplicates
+    private NearDuplicateIndex duplicates = new NearDuplicateIndex(MAX_DUPLICATE_DISTANCE);
+    //Where the text of each indexed page is kept for snippets, or null
+    private DocStore.Writer docStore = null;
+    //The text of the current page with runs of whitespace collapsed, if it's being kept
+    private StringBuilder pageText = new StringBuilder();
+    //How long the parser took over the last page, including waiting for it to be read
+    private long parseNanos = 0;
+
+    //Pages whose fingerprints differ in at most this many bits are near-duplicates
+    private static final int MAX_DUPLICATE_DISTANCE = 4;
+    //Fingerprints of shorter pages are too noisy to compare
+    private static final int MIN_DUPLICATE_WORDS = 16;
 
 
     public CrawlingMarkupHandler() {}
 
+    //Returns how long the parser took over the last page, including waiting for it to be read
+    public long getParseNanos() {
+        return parseNanos;
+    }
+
     /**
     * This method returns the complete index that has been crawled thus far when called.
     */
@@ -44,6 +75,51 @@ public class CrawlingMarkupHandler extends AbstractSimpleMarkupHandler {
         return list;
     }
 
+    /**
+    * Restricts crawling to the URL's owned by the given partition. Links to other partitions are
+    * collected by foreignLinks() instead.
+    */
+    public void setPartitioner(HostPartitioner partitioner) {
+        this.partitioner = partitioner;
+    }
+
+    /**
+    * Returns the number of links found to each URL owned by another partition since the last
+    * call.
+    */
+    public Map<URL, Integer> foreignLinks() {
+        Map<URL, Integer> links = foreignLinks;
+        foreignLinks = new HashMap<>();
+        return links;
+    }
+
+    /**
+    * Records count links to the given URL, queueing it to be crawled if it hasn't been seen.
+    */
+    public void addLink(URL next, int count) {
+        Page page = pastPages.get(next);
+        if(page != null) {
+            page.increment(count);
+        } else if(isPage(next)) {
+            newURLS.add(next);
+            page = new Page(next);
+            page.increment(count - 1);
+            pastPages.put(next, page);
+        }
+    }
+
+    /**
+    * Keeps the text of every page indexed from now on in the given store.
+    */
+    public void setDocStore(DocStore.Writer docStore) {
+        this.docStore = docStore;
+    }
+
+    private boolean isPage(URL url) {
+        String urlString = url.toString();
+        return urlString.endsWith(".html") || urlString.endsWith(".htm");
+    }
+
     /**
     * Called when the parser first starts reading a document.
     * @param startTimeNanos  the current time (in nanoseconds) when parsing starts
@@ -54,6 +130,8 @@ public class CrawlingMarkupHandler extends AbstractSimpleMarkupHandler {
         // TODO: Implement this.
         text = new LinkedList<>();
         lastWord = new StringBuilder();
+        pageText.setLength(0);
+        simHash.reset();
     }
 
     /**
@@ -65,13 +143,39 @@ public class CrawlingMarkupHandler extends AbstractSimpleMarkupHandler {
     * @param col             the column of the document where the parsing ends
     */
     public void handleDocumentEnd(long endTimeNanos, long totalTimeNanos, int line, int col) {
-        // TODO: Implement this.
-        //System.out.println("End of document");
+        parseNanos = totalTimeNanos;
         if(lastWord.length() > 0){
-            text.add(lastWord.toString());
+            addWord(lastWord.toString());
         }
         lastWord = new StringBuilder();
+
+        //A page crawled again mustn't be found as a duplicate of what it used to say
+        duplicates.remove(currentPage);
+        if(text.size() >= MIN_DUPLICATE_WORDS) {
+            long fingerprint = simHash.fingerprint();
+            Page original = duplicates.find(fingerprint, index::isLive);
+            if(original != null) {
+                //Record the mirror as an alias instead of indexing it again,
+                //and send its links to the original from now on
+                index.addAlias(original, currentPage.getURL());
+                original.increment(currentPage.getConnectedness());
+                pastPages.put(currentPage.getURL(), original);
+                DUPLICATES.increment();
+                return;
+            }
+            duplicates.add(fingerprint, currentPage);
+        }
+        long start = System.nanoTime();
         index.addPhrase(text);
+        INDEX_TIME.recordSince(start);
+        if(docStore != null && pageText.length() > 0) {
+            try {
+                docStore.add(currentPage.getID(), currentPage.getURL().toString(),
+                        pageText.toString().trim());
+            } catch(IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
     }
 
     /**
@@ -95,14 +199,11 @@ public class CrawlingMarkupHandler extends AbstractSimpleMarkupHandler {
                     try {
                         next = new URL(currentPage.getURL(), fin_link);
 
-                        if(!pastPages.keySet().contains(next)) {
-                            String urlString = next.toString();
-                            if(urlString.endsWith(".html") || urlString.endsWith(".htm")){
-                                newURLS.add(next);
-                                pastPages.put(next, new Page(next));
-                            }
-                        } else {
-                            pastPages.get(next).increment();
+                        if(partitioner == null || partitioner.owns(next)) {
+                            addLink(next, 1);
+                        } else if(isPage(next)) {
+                            //Another crawler owns this page, so it counts the link
+                            foreignLinks.merge(next, 1, Integer::sum);
                         }
                     } catch(MalformedURLException e) {
                     }
@@ -135,13 +236,24 @@ public class CrawlingMarkupHandler extends AbstractSimpleMarkupHandler {
         // TODO: Implement this.
         //System.out.print("Characters:    \"");
 
+        if(docStore != null) {
+            for(int i = start; i < start + length; i++) {
+                if(!Character.isWhitespace(ch[i])) {
+                    pageText.append(ch[i]);
+                } else if(pageText.length() > 0
+                        && pageText.charAt(pageText.length() - 1) != ' ') {
+                    pageText.append(' ');
+                }
+            }
+        }
+
         for(int i = start; i < start + length; i++) {
             //Tokenize the incoming stream of characters
             if(Character.isLetterOrDigit(ch[i])) {
                 lastWord.append(Character.toLowerCase(ch[i]));
             } else {
                 if(lastWord.length() > 0){
-                    text.add(lastWord.toString());
+                    addWord(lastWord.toString());
                     lastWord = new StringBuilder();
                 }
             }
@@ -149,6 +261,11 @@ public class CrawlingMarkupHandler extends AbstractSimpleMarkupHandler {
 
     }
 
+    private void addWord(String word) {
+        text.add(word);
+        simHash.add(word);
+    }
+
     public void setCurrentURL(URL currentURL){
         Page p = pastPages.get(currentURL);
         if(p == null) {
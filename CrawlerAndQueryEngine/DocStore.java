@@ -0,0 +1,290 @@
+package CrawlerAndQueryEngine;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The text of every indexed page, compressed, for building snippets of search results.
+ *
+ * Documents are written one after another into blocks of about BLOCK_SIZE bytes, and each block is
+ * compressed on its own, so reading a document only means decompressing the block it's in. The
+ * file ends with a directory giving the position of every block and of every document by page ID,
+ * followed by the position of the directory itself.
+ *
+ * Each document is stored with its URL, so the documents of several stores can be matched to the
+ * pages of a merged index.
+ */
+public class DocStore implements Closeable {
+    //Uncompressed size at which a block is closed
+    private static final int BLOCK_SIZE = 16 * 1024;
+    //Decompressed blocks kept for documents read again soon
+    private static final int CACHED_BLOCKS = 64;
+
+    private static final LongAdder CACHE_HITS = Metrics.counter(
+            "tsoogle_docstore_cache_hits_total", "Document store blocks found already decompressed");
+    private static final LongAdder CACHE_MISSES = Metrics.counter(
+            "tsoogle_docstore_cache_misses_total", "Document store blocks read and decompressed");
+
+    private final FileChannel file;
+    private final long[] blockOffsets;
+    private final int[] blockLengths;
+    private final int[] blockSizes;
+    //Sorted page IDs, and where each page's document is
+    private final int[] ids;
+    private final int[] docBlocks;
+    private final int[] docOffsets;
+    private final Map<Integer, byte[]> cache = new LinkedHashMap<Integer, byte[]>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, byte[]> eldest) {
+            return size() > CACHED_BLOCKS;
+        }
+    };
+
+    /**
+     * A document read back from the store.
+     */
+    public static class Document {
+        public final int id;
+        public final String url;
+        public final String text;
+
+        Document(int id, String url, String text) {
+            this.id = id;
+            this.url = url;
+            this.text = text;
+        }
+    }
+
+    /**
+     * Writes the documents of a new store. Documents may be added in any order of ID.
+     */
+    public static class Writer implements Closeable {
+        private final DataOutputStream out;
+        private final ByteArrayOutputStream block = new ByteArrayOutputStream(BLOCK_SIZE * 2);
+        private final DataOutputStream blockOut = new DataOutputStream(block);
+        private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        private final byte[] compressed = new byte[BLOCK_SIZE];
+        private long offset = 0;
+
+        private final List<long[]> blocks = new ArrayList<>();
+        //(ID, block, offset in block) for every document
+        private final List<int[]> docs = new ArrayList<>();
+
+        public Writer(String filename) throws IOException {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename)));
+        }
+
+        public void add(int id, String url, String text) throws IOException {
+            docs.add(new int[]{id, blocks.size(), block.size()});
+            writeString(blockOut, url);
+            writeString(blockOut, text);
+            if(block.size() >= BLOCK_SIZE) {
+                flushBlock();
+            }
+        }
+
+        private void flushBlock() throws IOException {
+            if(block.size() == 0) {
+                return;
+            }
+            deflater.reset();
+            deflater.setInput(block.toByteArray());
+            deflater.finish();
+            long length = 0;
+            while(!deflater.finished()) {
+                int n = deflater.deflate(compressed);
+                out.write(compressed, 0, n);
+                length += n;
+            }
+            blocks.add(new long[]{offset, length, block.size()});
+            offset += length;
+            block.reset();
+        }
+
+        @Override
+        public void close() throws IOException {
+            flushBlock();
+            deflater.end();
+            long directory = offset;
+            out.writeInt(blocks.size());
+            for(long[] b: blocks) {
+                out.writeLong(b[0]);
+                out.writeInt((int) b[1]);
+                out.writeInt((int) b[2]);
+            }
+            docs.sort((a, b) -> Integer.compare(a[0], b[0]));
+            out.writeInt(docs.size());
+            for(int[] doc: docs) {
+                out.writeInt(doc[0]);
+                out.writeInt(doc[1]);
+                out.writeInt(doc[2]);
+            }
+            out.writeLong(directory);
+            out.close();
+        }
+    }
+
+    private DocStore(FileChannel file) throws IOException {
+        this.file = file;
+        ByteBuffer end = read(file.size() - 8, 8);
+        long directory = end.getLong();
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+                read(directory, (int) (file.size() - 8 - directory)).array()));
+        int blockCount = in.readInt();
+        blockOffsets = new long[blockCount];
+        blockLengths = new int[blockCount];
+        blockSizes = new int[blockCount];
+        for(int i = 0; i < blockCount; i++) {
+            blockOffsets[i] = in.readLong();
+            blockLengths[i] = in.readInt();
+            blockSizes[i] = in.readInt();
+        }
+        int docCount = in.readInt();
+        ids = new int[docCount];
+        docBlocks = new int[docCount];
+        docOffsets = new int[docCount];
+        for(int i = 0; i < docCount; i++) {
+            ids[i] = in.readInt();
+            docBlocks[i] = in.readInt();
+            docOffsets[i] = in.readInt();
+        }
+    }
+
+    /**
+     * Returns where the document store of the given index file is kept: docs.db for index.db,
+     * docs-0.db for index-0.db, and so on.
+     */
+    public static String forIndex(String indexFile) {
+        File file = new File(indexFile);
+        String name = file.getName();
+        name = name.startsWith("index") ? "docs" + name.substring(5) : name + ".docs";
+        return new File(file.getParentFile(), name).getPath();
+    }
+
+    /**
+     * Opens a store for reading. Only its directory is read into memory.
+     */
+    public static DocStore open(String filename) throws IOException {
+        FileChannel file = FileChannel.open(new File(filename).toPath(), StandardOpenOption.READ);
+        try {
+            return new DocStore(file);
+        } catch(IOException | RuntimeException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    //Returns the number of documents in the store
+    public int size() {
+        return ids.length;
+    }
+
+    /**
+     * Returns the document of the page with the given ID, or null if it isn't in the store.
+     */
+    public Document get(int id) throws IOException {
+        int i = Arrays.binarySearch(ids, id);
+        if(i < 0) {
+            return null;
+        }
+        return read(i);
+    }
+
+    /**
+     * Returns every document in the store, in order of ID.
+     */
+    public Iterable<Document> documents() {
+        return () -> new Iterator<Document>() {
+            private int next = 0;
+
+            public boolean hasNext() {
+                return next < ids.length;
+            }
+
+            public Document next() {
+                if(!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                try {
+                    return read(next++);
+                } catch(IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        };
+    }
+
+    private Document read(int i) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(block(docBlocks[i])));
+        in.skipBytes(docOffsets[i]);
+        String url = readString(in);
+        return new Document(ids[i], url, readString(in));
+    }
+
+    private byte[] block(int b) throws IOException {
+        synchronized(cache) {
+            byte[] cached = cache.get(b);
+            if(Metrics.isRecording()) {
+                (cached != null ? CACHE_HITS : CACHE_MISSES).increment();
+            }
+            if(cached != null) {
+                return cached;
+            }
+        }
+        Inflater inflater = new Inflater();
+        byte[] output = new byte[blockSizes[b]];
+        try {
+            inflater.setInput(read(blockOffsets[b], blockLengths[b]).array());
+            int n = 0;
+            while(n < output.length && !inflater.finished()) {
+                n += inflater.inflate(output, n, output.length - n);
+            }
+        } catch(DataFormatException e) {
+            throw new IOException("Corrupt block " + b + " in document store", e);
+        } finally {
+            inflater.end();
+        }
+        synchronized(cache) {
+            cache.put(b, output);
+        }
+        return output;
+    }
+
+    //Positional reads, so readers on different threads don't share a file position
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while(buffer.hasRemaining()) {
+            if(file.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Document store is truncated");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    //Strings are written as a length in bytes and UTF-8, since text can be longer than writeUTF allows
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+}
@@ -0,0 +1,285 @@
+package CrawlerAndQueryEngine;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.BitSet;
+
+/**
+ * What an index knows about each of its pages, packed into fixed-size records by page ID and kept
+ * off the heap, so a large crawl costs the garbage collector nothing for it.
+ *
+ * Each record holds where the page's URL is in the URL arena, how many links were found to the
+ * page, the number of words on it and a hash of those words. URLs are stored as UTF-8 one after
+ * another in the arena, and found again by a hash table of IDs.
+ */
+public class DocTable implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    //Record layout: URL offset, URL length, connectedness, length in words, content hash
+    private static final int URL_OFFSET = 0;
+    private static final int URL_LENGTH = 4;
+    private static final int CONNECTEDNESS = 8;
+    private static final int LENGTH = 12;
+    private static final int CONTENT_HASH = 16;
+    private static final int RECORD_SIZE = 24;
+
+    //Slot of the URL hash table whose page was removed, which lookups have to walk past
+    private static final int REMOVED = -1;
+
+    private transient ByteBuffer records;
+    private transient ByteBuffer arena;
+    private transient int arenaSize;
+    //Open addressing, holding page IDs; 0 is an empty slot, since IDs start at 1
+    private transient int[] slots;
+    private transient int used;
+    //Highest ID with a record, plus one
+    private transient int limit;
+
+    public DocTable() {
+        records = ByteBuffer.allocateDirect(1024 * RECORD_SIZE);
+        arena = ByteBuffer.allocateDirect(64 * 1024);
+        slots = new int[1024];
+    }
+
+    /**
+     * Stores the page with the given ID, which becomes the page found at its URL.
+     */
+    public void add(int id, String url, int connectedness, int length, long contentHash) {
+        byte[] bytes = url.getBytes(StandardCharsets.UTF_8);
+        ensureRecord(id);
+        int offset = append(bytes);
+        int base = id * RECORD_SIZE;
+        records.putInt(base + URL_OFFSET, offset);
+        records.putInt(base + URL_LENGTH, bytes.length);
+        records.putInt(base + CONNECTEDNESS, connectedness);
+        records.putInt(base + LENGTH, length);
+        records.putLong(base + CONTENT_HASH, contentHash);
+        put(bytes, id);
+    }
+
+    public String url(int id) {
+        return new String(urlBytes(id), StandardCharsets.UTF_8);
+    }
+
+    public int connectedness(int id) {
+        return records.getInt(id * RECORD_SIZE + CONNECTEDNESS);
+    }
+
+    public void setConnectedness(int id, int connectedness) {
+        records.putInt(id * RECORD_SIZE + CONNECTEDNESS, connectedness);
+    }
+
+    public int length(int id) {
+        return records.getInt(id * RECORD_SIZE + LENGTH);
+    }
+
+    public long contentHash(int id) {
+        return records.getLong(id * RECORD_SIZE + CONTENT_HASH);
+    }
+
+    //Returns the bytes of the hash table, the only part of the table on the heap
+    public long heapBytes() {
+        return IndexStats.intArrayBytes(slots.length);
+    }
+
+    //Returns the capacity of the record and URL buffers
+    public long offHeapBytes() {
+        return records.capacity() + (long) arena.capacity();
+    }
+
+    /**
+     * Returns the ID of the page last added at the given URL, or 0 if there isn't one.
+     */
+    public int find(String url) {
+        byte[] bytes = url.getBytes(StandardCharsets.UTF_8);
+        int slot = findSlot(bytes);
+        return slot < 0 ? 0 : slots[slot];
+    }
+
+    /**
+     * Forgets which page is at the given URL. The page's record is kept until the next compact().
+     */
+    public void remove(String url) {
+        int slot = findSlot(url.getBytes(StandardCharsets.UTF_8));
+        if(slot >= 0) {
+            slots[slot] = REMOVED;
+        }
+    }
+
+    /**
+     * Drops the record of every page not in live, and the URLs only they used.
+     */
+    public void compact(BitSet live) {
+        ByteBuffer oldArena = arena;
+        arena = ByteBuffer.allocateDirect(Math.max(arenaSize, 64 * 1024));
+        arenaSize = 0;
+        slots = new int[slots.length];
+        used = 0;
+        for(int id = 1; id < limit; id++) {
+            int base = id * RECORD_SIZE;
+            if(!live.get(id)) {
+                for(int i = 0; i < RECORD_SIZE; i += 4) {
+                    records.putInt(base + i, 0);
+                }
+                continue;
+            }
+            byte[] bytes = read(oldArena, records.getInt(base + URL_OFFSET),
+                    records.getInt(base + URL_LENGTH));
+            records.putInt(base + URL_OFFSET, append(bytes));
+            put(bytes, id);
+        }
+    }
+
+    private byte[] urlBytes(int id) {
+        int base = id * RECORD_SIZE;
+        return read(arena, records.getInt(base + URL_OFFSET), records.getInt(base + URL_LENGTH));
+    }
+
+    //Reads through a duplicate, so readers on different threads don't share a position
+    private static byte[] read(ByteBuffer buffer, int offset, int length) {
+        byte[] bytes = new byte[length];
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset);
+        view.get(bytes);
+        return bytes;
+    }
+
+    private int append(byte[] bytes) {
+        if(arenaSize + bytes.length > arena.capacity()) {
+            arena = grow(arena, Math.max(arena.capacity() * 2, arenaSize + bytes.length));
+        }
+        int offset = arenaSize;
+        ByteBuffer view = arena.duplicate();
+        view.position(offset);
+        view.put(bytes);
+        arenaSize += bytes.length;
+        return offset;
+    }
+
+    private void ensureRecord(int id) {
+        if((id + 1) * RECORD_SIZE > records.capacity()) {
+            records = grow(records, Math.max(records.capacity() * 2, (id + 1) * RECORD_SIZE));
+        }
+        limit = Math.max(limit, id + 1);
+    }
+
+    private static ByteBuffer grow(ByteBuffer buffer, int capacity) {
+        ByteBuffer output = ByteBuffer.allocateDirect(capacity);
+        ByteBuffer view = buffer.duplicate();
+        view.clear();
+        output.put(view);
+        output.clear();
+        return output;
+    }
+
+    //Points the URL's slot at the given ID, taking a new slot if the URL has none
+    private void put(byte[] url, int id) {
+        int slot = findSlot(url);
+        if(slot >= 0) {
+            slots[slot] = id;
+            return;
+        }
+        if((used + 1) * 2 > slots.length) {
+            rehash();
+        }
+        int mask = slots.length - 1;
+        slot = hash(url) & mask;
+        while(slots[slot] > 0) {
+            slot = (slot + 1) & mask;
+        }
+        if(slots[slot] == 0) {
+            used++;
+        }
+        slots[slot] = id;
+    }
+
+    //Returns the slot holding the page at the given URL, or -1 if there isn't one
+    private int findSlot(byte[] url) {
+        int mask = slots.length - 1;
+        int slot = hash(url) & mask;
+        while(slots[slot] != 0) {
+            int id = slots[slot];
+            if(id > 0 && sameURL(id, url)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private boolean sameURL(int id, byte[] url) {
+        int base = id * RECORD_SIZE;
+        if(records.getInt(base + URL_LENGTH) != url.length) {
+            return false;
+        }
+        int offset = records.getInt(base + URL_OFFSET);
+        for(int i = 0; i < url.length; i++) {
+            if(arena.get(offset + i) != url[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //Doubles the table when it's full of live pages, or just clears out removed slots
+    private void rehash() {
+        int[] old = slots;
+        int live = 0;
+        for(int id: old) {
+            if(id > 0) {
+                live++;
+            }
+        }
+        slots = new int[live * 4 > old.length ? old.length * 2 : old.length];
+        used = 0;
+        for(int id: old) {
+            if(id > 0) {
+                put(urlBytes(id), id);
+            }
+        }
+    }
+
+    //FNV-1a
+    private static int hash(byte[] bytes) {
+        int hash = 0x811c9dc5;
+        for(byte b: bytes) {
+            hash = (hash ^ b) * 0x01000193;
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    //Direct buffers can't be serialized, so the records and arena are written out as bytes
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeInt(limit);
+        out.write(read(records, 0, limit * RECORD_SIZE));
+        out.writeInt(arenaSize);
+        out.write(read(arena, 0, arenaSize));
+        out.writeInt(slots.length);
+        out.writeInt(used);
+        for(int id: slots) {
+            out.writeInt(id);
+        }
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        limit = in.readInt();
+        byte[] bytes = new byte[limit * RECORD_SIZE];
+        in.readFully(bytes);
+        records = ByteBuffer.allocateDirect(Math.max(bytes.length, 1024 * RECORD_SIZE));
+        records.put(bytes).clear();
+        arenaSize = in.readInt();
+        bytes = new byte[arenaSize];
+        in.readFully(bytes);
+        arena = ByteBuffer.allocateDirect(Math.max(arenaSize, 64 * 1024));
+        arena.put(bytes).clear();
+        slots = new int[in.readInt()];
+        used = in.readInt();
+        for(int i = 0; i < slots.length; i++) {
+            slots[i] = in.readInt();
+        }
+    }
+
+}
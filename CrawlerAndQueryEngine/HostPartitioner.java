@@ -0,0 +1,56 @@
+package CrawlerAndQueryEngine;
+
+import java.net.URL;
+
+/**
+ * Splits URLs between the processes of a partitioned crawl by hashing their host, so every page
+ * of a site is crawled (and its links counted) by a single process. Local file:// URLs have no
+ * host, so they are partitioned by the directory they are in instead.
+ */
+public class HostPartitioner {
+    private final int partition;
+    private final int partitionCount;
+
+    public HostPartitioner(int partition, int partitionCount) {
+        if(partitionCount < 1 || partition < 0 || partition >= partitionCount) {
+            throw new IllegalArgumentException(
+                    "Partition " + partition + " out of range for " + partitionCount + " partitions");
+        }
+        this.partition = partition;
+        this.partitionCount = partitionCount;
+    }
+
+    /**
+     * Parses a partition given as "index/count", such as "0/4".
+     */
+    public static HostPartitioner parse(String spec) {
+        int slash = spec.indexOf('/');
+        if(slash < 0) {
+            throw new IllegalArgumentException("Partition '" + spec + "' should look like 0/4");
+        }
+        return new HostPartitioner(Integer.parseInt(spec.substring(0, slash)),
+                Integer.parseInt(spec.substring(slash + 1)));
+    }
+
+    public int getPartition() {
+        return partition;
+    }
+
+    public int getPartitionCount() {
+        return partitionCount;
+    }
+
+    //Returns the partition which crawls the given URL
+    public int partitionOf(URL url) {
+        String key = url.getHost();
+        if(key == null || key.isEmpty()) {
+            String path = url.getPath();
+            key = path.substring(0, path.lastIndexOf('/') + 1);
+        }
+        return Math.floorMod(key.toLowerCase().hashCode(), partitionCount);
+    }
+
+    public boolean owns(URL url) {
+        return partitionOf(url) == partition;
+    }
+}
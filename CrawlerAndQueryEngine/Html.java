@@ -0,0 +1,30 @@
+package CrawlerAndQueryEngine;
+
+/**
+ * Helpers for putting text into HTML pages.
+ */
+public class Html {
+    private Html() {}
+
+    //Makes text safe to put in an HTML page or attribute
+    public static String escape(String text) {
+        StringBuilder output = new StringBuilder(text.length() + 16);
+        appendEscaped(output, text, 0, text.length());
+        return output.toString();
+    }
+
+    //Appends the characters of text from start to end, made safe for an HTML page or attribute
+    public static void appendEscaped(StringBuilder output, String text, int start, int end) {
+        for(int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            switch(c) {
+                case '<': output.append("&lt;"); break;
+                case '>': output.append("&gt;"); break;
+                case '&': output.append("&amp;"); break;
+                case '"': output.append("&quot;"); break;
+                case '\'': output.append("&#39;"); break;
+                default: output.append(c);
+            }
+        }
+    }
+}
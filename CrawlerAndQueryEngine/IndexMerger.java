@@ -0,0 +1,66 @@
+package CrawlerAndQueryEngine;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Combines the index shards written by a partitioned crawl into a single index, along with the
+ * document stores kept next to them.
+ *
+ *   java CrawlerAndQueryEngine.IndexMerger index.db index-0.db index-1.db ...
+ */
+public class IndexMerger {
+
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.err.println("Usage: IndexMerger output.db shard.db...");
+            System.exit(1);
+        }
+
+        try {
+            WebIndex merged = new WebIndex();
+            for (int i = 1; i < args.length; i++) {
+                merged.merge((WebIndex) Index.load(args[i]));
+            }
+            merged.save(args[0]);
+            mergeDocStores(merged, args);
+        } catch (Exception e) {
+            System.err.println("Error: Index merge failed!");
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Writes the documents of every shard's store that are still in the merged index, under
+     * their pages' new IDs.
+     */
+    private static void mergeDocStores(WebIndex merged, String[] args) throws IOException {
+        List<String> stores = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) {
+            if (new File(DocStore.forIndex(args[i])).exists()) {
+                stores.add(DocStore.forIndex(args[i]));
+            }
+        }
+        if (stores.isEmpty()) {
+            return;
+        }
+
+        // Later shards win when they hold the same URL, as in WebIndex.merge
+        Collections.reverse(stores);
+        BitSet written = new BitSet();
+        try (DocStore.Writer out = new DocStore.Writer(DocStore.forIndex(args[0]))) {
+            for (String store : stores) {
+                try (DocStore in = DocStore.open(store)) {
+                    for (DocStore.Document doc : in.documents()) {
+                        Page page = merged.getPage(doc.url);
+                        if (page != null && !written.get(page.getID())) {
+                            written.set(page.getID());
+                            out.add(page.getID(), doc.url, doc.text);
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
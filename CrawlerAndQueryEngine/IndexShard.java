@@ -0,0 +1,14 @@
+package CrawlerAndQueryEngine;
+
+import java.io.IOException;
+
+/**
+ * One part of a sharded index which can answer queries on its own, either in this process or in
+ * another one.
+ */
+public interface IndexShard {
+    /**
+     * Returns the limit highest ranked pages in this shard that satisfy the query.
+     */
+    SearchResults search(String query, int limit) throws IOException;
+}
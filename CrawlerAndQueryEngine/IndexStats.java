@@ -0,0 +1,246 @@
+package CrawlerAndQueryEngine;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * What an index holds and roughly how much memory each part of it takes, for capacity planning
+ * and for checking that a change to the index's layout saved what it was meant to.
+ *
+ * Heap sizes are estimates from the number and size of the objects in each structure, as laid out
+ * by a 64-bit JVM with compressed references and compact strings. They leave out anything shared
+ * with another structure, such as the words of the dictionary, which are the same Strings as the
+ * words of each page. Off-heap sizes are the capacity of the direct buffers, used or not.
+ *
+ *   java CrawlerAndQueryEngine.IndexStats index.db [top terms]
+ */
+public class IndexStats {
+    public final int documents;
+    //Pages deleted but still taking up space until the next compaction
+    public final int deletedDocuments;
+    public final int terms;
+    //Number of (word, page) pairs, and of positions across all of them
+    public final long postings;
+    public final long positions;
+    public final int bigrams;
+    public final long bigramPostings;
+    //postingLengths[i] is the number of words on between 2^i and 2^(i+1) - 1 pages
+    public final long[] postingLengths;
+    //The words on the most pages, most first
+    public final List<Term> heaviestTerms;
+    //Estimated bytes of each structure, in the order they're reported
+    public final Map<String, Long> heapBytes;
+    public final Map<String, Long> offHeapBytes;
+
+    /**
+     * A word and the size of its postings.
+     */
+    public static class Term {
+        public final String word;
+        public final int pages;
+        public final long positions;
+
+        Term(String word, int pages, long positions) {
+            this.word = word;
+            this.pages = pages;
+            this.positions = positions;
+        }
+    }
+
+    IndexStats(int documents, int deletedDocuments, int terms, long postings, long positions,
+            int bigrams, long bigramPostings, long[] postingLengths, List<Term> heaviestTerms,
+            Map<String, Long> heapBytes, Map<String, Long> offHeapBytes) {
+        this.documents = documents;
+        this.deletedDocuments = deletedDocuments;
+        this.terms = terms;
+        this.postings = postings;
+        this.positions = positions;
+        this.bigrams = bigrams;
+        this.bigramPostings = bigramPostings;
+        this.postingLengths = postingLengths;
+        this.heaviestTerms = heaviestTerms;
+        this.heapBytes = heapBytes;
+        this.offHeapBytes = offHeapBytes;
+    }
+
+    /**
+     * Returns the same statistics listing only the given number of heaviest terms.
+     */
+    public IndexStats withHeaviestTerms(int count) {
+        return new IndexStats(documents, deletedDocuments, terms, postings, positions, bigrams,
+                bigramPostings, postingLengths,
+                heaviestTerms.subList(0, Math.min(count, heaviestTerms.size())), heapBytes,
+                offHeapBytes);
+    }
+
+    public long totalHeapBytes() {
+        return sum(heapBytes);
+    }
+
+    public long totalOffHeapBytes() {
+        return sum(offHeapBytes);
+    }
+
+    private static long sum(Map<String, Long> bytes) {
+        long total = 0;
+        for(long b: bytes.values()) {
+            total += b;
+        }
+        return total;
+    }
+
+    //Sizes of objects, rounded up to the JVM's 8-byte alignment
+    static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+
+    static long intArrayBytes(int length) {
+        return align(16 + 4L * length);
+    }
+
+    static long charArrayBytes(int length) {
+        return align(16 + 2L * length);
+    }
+
+    static long referenceArrayBytes(int length) {
+        return align(16 + 4L * length);
+    }
+
+    //A String and its array, one byte per character unless it needs more than Latin-1
+    static long stringBytes(String s) {
+        boolean latin1 = true;
+        for(int i = 0; i < s.length() && latin1; i++) {
+            latin1 = s.charAt(i) < 256;
+        }
+        return 24 + align(16 + (latin1 ? 1L : 2L) * s.length());
+    }
+
+    //A HashMap of the given size with its table and entries, but not its keys or values
+    static long hashMapBytes(int size) {
+        long bytes = 48 + 32L * size;
+        if(size > 0) {
+            int capacity = Integer.highestOneBit(Math.max((int) (size / 0.75f) - 1, 1)) << 1;
+            bytes += referenceArrayBytes(Math.max(capacity, 16));
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns the lower bound of the posting lengths counted in the given bucket.
+     */
+    public static long bucketStart(int bucket) {
+        return 1L << bucket;
+    }
+
+    /**
+     * Returns the statistics as text, one figure per line.
+     */
+    @Override
+    public String toString() {
+        StringBuilder output = new StringBuilder();
+        output.append("documents:       ").append(documents);
+        if(deletedDocuments > 0) {
+            output.append(" (").append(deletedDocuments).append(" deleted, not yet compacted)");
+        }
+        output.append('\n');
+        output.append("terms:           ").append(terms).append('\n');
+        output.append("postings:        ").append(postings).append('\n');
+        output.append("positions:       ").append(positions).append('\n');
+        output.append("word pairs:      ").append(bigrams).append(", with ")
+                .append(bigramPostings).append(" postings\n");
+
+        output.append("\npages per term\n");
+        for(int i = 0; i < postingLengths.length; i++) {
+            long end = bucketStart(i + 1) - 1;
+            String range = i == 0 ? "1" : bucketStart(i) + "-" + end;
+            output.append(String.format("  %-15s %d%n", range, postingLengths[i]));
+        }
+
+        output.append("\nheaviest terms (pages, positions)\n");
+        for(Term term: heaviestTerms) {
+            output.append(String.format("  %-20s %d %d%n", term.word, term.pages,
+                    term.positions));
+        }
+
+        output.append("\nestimated heap bytes\n");
+        appendBytes(output, heapBytes, totalHeapBytes());
+        output.append("\noff-heap bytes\n");
+        appendBytes(output, offHeapBytes, totalOffHeapBytes());
+        return output.toString();
+    }
+
+    private static void appendBytes(StringBuilder output, Map<String, Long> bytes, long total) {
+        for(Map.Entry<String, Long> entry: bytes.entrySet()) {
+            output.append(String.format("  %-15s %,d%n", entry.getKey(), entry.getValue()));
+        }
+        output.append(String.format("  %-15s %,d%n", "total", total));
+    }
+
+    /**
+     * Writes the statistics as a JSON object.
+     */
+    public void writeJson(JsonWriter json) throws IOException {
+        json.beginObject()
+                .name("documents").value(documents)
+                .name("deletedDocuments").value(deletedDocuments)
+                .name("terms").value(terms)
+                .name("postings").value(postings)
+                .name("positions").value(positions)
+                .name("bigrams").value(bigrams)
+                .name("bigramPostings").value(bigramPostings);
+        json.name("postingLengths").beginArray();
+        for(int i = 0; i < postingLengths.length; i++) {
+            json.beginObject()
+                    .name("from").value(bucketStart(i))
+                    .name("to").value(bucketStart(i + 1) - 1)
+                    .name("terms").value(postingLengths[i])
+                    .endObject();
+        }
+        json.endArray();
+        json.name("heaviestTerms").beginArray();
+        for(Term term: heaviestTerms) {
+            json.beginObject()
+                    .name("term").value(term.word)
+                    .name("pages").value(term.pages)
+                    .name("positions").value(term.positions)
+                    .endObject();
+        }
+        json.endArray();
+        writeBytes(json, "heapBytes", heapBytes, totalHeapBytes());
+        writeBytes(json, "offHeapBytes", offHeapBytes, totalOffHeapBytes());
+        json.endObject();
+    }
+
+    private static void writeBytes(JsonWriter json, String name, Map<String, Long> bytes,
+            long total) throws IOException {
+        json.name(name).beginObject();
+        for(Map.Entry<String, Long> entry: bytes.entrySet()) {
+            json.name(entry.getKey()).value(entry.getValue());
+        }
+        json.name("total").value(total).endObject();
+    }
+
+    public static void main(String[] args) {
+        if(args.length < 1) {
+            System.err.println("Usage: IndexStats index.db [top terms]");
+            System.exit(1);
+        }
+
+        try {
+            int top = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+            File indexFile = new File(args[0]);
+            WebIndex index = (WebIndex) Index.load(args[0]);
+            System.out.print(index.stats(top));
+            System.out.println();
+            System.out.printf("%-17s %,d%n", "index file:", indexFile.length());
+            File docs = new File(DocStore.forIndex(args[0]));
+            if(docs.exists()) {
+                System.out.printf("%-17s %,d%n", "document store:", docs.length());
+            }
+        } catch(Exception e) {
+            System.err.println("Error: Couldn't read the index!");
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+}
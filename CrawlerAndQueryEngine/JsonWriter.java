@@ -0,0 +1,134 @@
+package CrawlerAndQueryEngine;
+
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * Writes JSON straight to a stream as values are given to it, without building a tree first.
+ *
+ * Values are written in order: objects are opened with beginObject(), their members named with
+ * name(), and closed with endObject(). Commas are put in automatically.
+ */
+public class JsonWriter {
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final Writer out;
+    //Whether the object or array at each level of nesting needs a comma before its next value
+    private boolean[] needsComma = new boolean[16];
+    private int depth = 0;
+    private boolean afterName = false;
+
+    public JsonWriter(Writer out) {
+        this.out = out;
+    }
+
+    public JsonWriter beginObject() throws IOException {
+        return open('{');
+    }
+
+    public JsonWriter endObject() throws IOException {
+        return close('}');
+    }
+
+    public JsonWriter beginArray() throws IOException {
+        return open('[');
+    }
+
+    public JsonWriter endArray() throws IOException {
+        return close(']');
+    }
+
+    /**
+     * Names the next value written in the current object.
+     */
+    public JsonWriter name(String name) throws IOException {
+        separate();
+        string(name);
+        out.write(':');
+        afterName = true;
+        return this;
+    }
+
+    public JsonWriter value(String value) throws IOException {
+        separate();
+        if(value == null) {
+            out.write("null");
+        } else {
+            string(value);
+        }
+        return this;
+    }
+
+    public JsonWriter value(long value) throws IOException {
+        separate();
+        out.write(Long.toString(value));
+        return this;
+    }
+
+    public JsonWriter value(boolean value) throws IOException {
+        separate();
+        out.write(value ? "true" : "false");
+        return this;
+    }
+
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    private JsonWriter open(char bracket) throws IOException {
+        separate();
+        out.write(bracket);
+        if(++depth == needsComma.length) {
+            needsComma = Arrays.copyOf(needsComma, depth * 2);
+        }
+        needsComma[depth] = false;
+        return this;
+    }
+
+    private JsonWriter close(char bracket) throws IOException {
+        depth--;
+        out.write(bracket);
+        return this;
+    }
+
+    //Puts a comma between this value and the one before it, unless it follows a name
+    private void separate() throws IOException {
+        if(afterName) {
+            afterName = false;
+            return;
+        }
+        if(needsComma[depth]) {
+            out.write(',');
+        }
+        needsComma[depth] = true;
+    }
+
+    private void string(String s) throws IOException {
+        out.write('"');
+        int start = 0;
+        for(int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            //The line separators are valid JSON but not valid JavaScript, so escape them too
+            if(c >= 0x20 && c != '"' && c != '\\' && c != 0x2028 && c != 0x2029) {
+                continue;
+            }
+            out.write(s, start, i - start);
+            start = i + 1;
+            switch(c) {
+                case '"': out.write("\\\""); break;
+                case '\\': out.write("\\\\"); break;
+                case '\n': out.write("\\n"); break;
+                case '\r': out.write("\\r"); break;
+                case '\t': out.write("\\t"); break;
+                default:
+                    out.write("\\u");
+                    out.write(HEX[(c >> 12) & 0xF]);
+                    out.write(HEX[(c >> 8) & 0xF]);
+                    out.write(HEX[(c >> 4) & 0xF]);
+                    out.write(HEX[c & 0xF]);
+            }
+        }
+        out.write(s, start, s.length() - start);
+        out.write('"');
+    }
+}
@@ -0,0 +1,110 @@
+package CrawlerAndQueryEngine;
+
+import java.util.concurrent.atomic.*;
+
+/**
+ * A lock-free histogram of durations in nanoseconds. Like HdrHistogram, each power of two is split
+ * into a fixed number of linear sub-buckets, so every recorded value is kept to within about 3%
+ * while the whole range of a long fits in under two thousand counters. Recording is a handful of
+ * atomic increments, so it can be called on every request from any number of threads.
+ */
+public class LatencyHistogram {
+    //Each power of two is split into 2^SUB_BUCKET_BITS buckets
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private final AtomicLongArray counts = new AtomicLongArray((64 - SUB_BUCKET_BITS) * SUB_BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long nanos) {
+        if(!Metrics.isRecording()) {
+            return;
+        }
+        if(nanos < 0) {
+            nanos = 0;
+        }
+        counts.incrementAndGet(bucket(nanos));
+        count.increment();
+        sum.add(nanos);
+        max.accumulateAndGet(nanos, Math::max);
+    }
+
+    /**
+     * Records a latency measured by a client which expects to send a request every
+     * expectedIntervalNanos, correcting for coordinated omission: while a slow request held the
+     * client up, the requests it would have sent in the meantime would have waited too, so their
+     * latencies are recorded as well.
+     */
+    public void record(long nanos, long expectedIntervalNanos) {
+        record(nanos);
+        if(expectedIntervalNanos <= 0) {
+            return;
+        }
+        for(long missed = nanos - expectedIntervalNanos; missed >= expectedIntervalNanos;
+                missed -= expectedIntervalNanos) {
+            record(missed);
+        }
+    }
+
+    //Records the time since startNanos, which came from System.nanoTime()
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getSum() {
+        return sum.sum();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Returns the value below which the given fraction of recorded values fall, such as 0.99 for
+     * the 99th percentile, or 0 if nothing has been recorded.
+     */
+    public long getPercentile(double fraction) {
+        long total = 0;
+        for(int i = 0; i < counts.length(); i++) {
+            total += counts.get(i);
+        }
+        if(total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(fraction * total));
+        long seen = 0;
+        for(int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if(seen >= rank) {
+                return Math.min(highestValue(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    private static int bucket(long value) {
+        if(value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) - SUB_BUCKETS;
+        return (shift + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    //The largest value that falls into the given bucket
+    private static long highestValue(int bucket) {
+        if(bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
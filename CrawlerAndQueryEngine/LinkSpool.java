@@ -0,0 +1,159 @@
+package CrawlerAndQueryEngine;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Exchanges links between the processes of a partitioned crawl through a shared spool directory.
+ *
+ * Links owned by another partition are batched and written to that partition's inbox directory as
+ * files of "count\turl" lines. Each file is written under a temporary name and then renamed, so a
+ * reader never sees a partial batch.
+ *
+ * Every process also keeps a status file with its state and the number of batches it has sent and
+ * received. The crawl is over once every process is idle and all sent batches have been received,
+ * in two scans in a row with no change in between.
+ */
+public class LinkSpool {
+    //Batches are written once they hold this many distinct links
+    private static final int BATCH_SIZE = 1000;
+
+    private final File directory;
+    private final HostPartitioner partitioner;
+    private final File inbox;
+    //Links waiting to be sent, by destination partition
+    private final List<Map<URL, Integer>> outgoing = new ArrayList<>();
+
+    private long sent = 0;
+    private long received = 0;
+    private int sequence = 0;
+    private String lastSnapshot = null;
+
+    /**
+     * Opens the spool for the given partition. Every process of one crawl must use the same,
+     * initially empty, directory.
+     */
+    public LinkSpool(File directory, HostPartitioner partitioner) throws IOException {
+        this.directory = directory;
+        this.partitioner = partitioner;
+        for(int i = 0; i < partitioner.getPartitionCount(); i++) {
+            outgoing.add(new HashMap<>());
+            Files.createDirectories(inbox(i).toPath());
+        }
+        this.inbox = inbox(partitioner.getPartition());
+        writeStatus("active");
+    }
+
+    private File inbox(int partition) {
+        return new File(directory, "to-" + partition);
+    }
+
+    //Queues links for the partitions that own them, writing any batch that is full
+    public void send(Map<URL, Integer> links) throws IOException {
+        for(Map.Entry<URL, Integer> link: links.entrySet()) {
+            int partition = partitioner.partitionOf(link.getKey());
+            Map<URL, Integer> batch = outgoing.get(partition);
+            batch.merge(link.getKey(), link.getValue(), Integer::sum);
+            if(batch.size() >= BATCH_SIZE) {
+                write(partition);
+            }
+        }
+    }
+
+    //Writes every queued link, however small its batch
+    public void flush() throws IOException {
+        for(int i = 0; i < outgoing.size(); i++) {
+            if(!outgoing.get(i).isEmpty()) {
+                write(i);
+            }
+        }
+    }
+
+    private void write(int partition) throws IOException {
+        String name = "from-" + partitioner.getPartition() + "-" + (sequence++) + ".links";
+        File temp = new File(directory, name + ".tmp");
+        try(Writer out = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(temp), StandardCharsets.UTF_8))) {
+            for(Map.Entry<URL, Integer> link: outgoing.get(partition).entrySet()) {
+                out.write(link.getValue() + "\t" + link.getKey() + "\n");
+            }
+        }
+        Files.move(temp.toPath(), new File(inbox(partition), name).toPath(),
+                StandardCopyOption.ATOMIC_MOVE);
+        outgoing.get(partition).clear();
+        sent++;
+    }
+
+    /**
+     * Reads and removes every batch sent to this partition, returning the number of times each
+     * link was found.
+     */
+    public Map<URL, Integer> receive() throws IOException {
+        Map<URL, Integer> links = new HashMap<>();
+        File[] batches = inbox.listFiles();
+        if(batches == null || batches.length == 0) {
+            return links;
+        }
+        Arrays.sort(batches);
+        for(File batch: batches) {
+            try(BufferedReader in = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(batch), StandardCharsets.UTF_8))) {
+                String line;
+                while((line = in.readLine()) != null) {
+                    int tab = line.indexOf('\t');
+                    try {
+                        links.merge(new URL(line.substring(tab + 1)),
+                                Integer.parseInt(line.substring(0, tab)), Integer::sum);
+                    } catch(MalformedURLException e) {
+                    }
+                }
+            }
+            Files.delete(batch.toPath());
+            received++;
+        }
+        writeStatus("active");
+        return links;
+    }
+
+    /**
+     * Marks this process idle and returns whether every process of the crawl is finished. Should
+     * only be called after flush() once this process has nothing left to crawl.
+     */
+    public boolean isFinished() throws IOException {
+        writeStatus("idle");
+
+        StringBuilder snapshot = new StringBuilder();
+        long totalSent = 0;
+        long totalReceived = 0;
+        boolean allIdle = true;
+        for(int i = 0; i < partitioner.getPartitionCount(); i++) {
+            File status = new File(directory, "status-" + i);
+            if(!status.exists()) {
+                //That process hasn't started yet
+                lastSnapshot = null;
+                return false;
+            }
+            String[] fields = new String(Files.readAllBytes(status.toPath()),
+                    StandardCharsets.UTF_8).trim().split(" ");
+            allIdle &= fields[0].equals("idle");
+            totalSent += Long.parseLong(fields[1]);
+            totalReceived += Long.parseLong(fields[2]);
+            snapshot.append(String.join(" ", fields)).append('\n');
+        }
+
+        boolean finished = allIdle && totalSent == totalReceived &&
+                snapshot.toString().equals(lastSnapshot);
+        lastSnapshot = snapshot.toString();
+        return finished;
+    }
+
+    private void writeStatus(String state) throws IOException {
+        File temp = new File(directory, "status-" + partitioner.getPartition() + ".tmp");
+        Files.write(temp.toPath(), (state + " " + sent + " " + received).getBytes(StandardCharsets.UTF_8));
+        Files.move(temp.toPath(), new File(directory, "status-" + partitioner.getPartition()).toPath(),
+                StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+}
@@ -0,0 +1,28 @@
+package CrawlerAndQueryEngine;
+
+import java.util.*;
+
+/**
+ * An index shard held in this process. Queries that run longer than the shard's timeout, or whose
+ * thread is interrupted, fail with a QueryTimeoutException.
+ */
+public class LocalShard implements IndexShard {
+    private static final LatencyHistogram RANK_TIME = Metrics.histogram(
+            "tsoogle_query_stage_seconds{stage=\"rank\"}", "Time spent in each stage of a query");
+
+    private final WebQueryEngine engine;
+    private final long timeoutMillis;
+
+    public LocalShard(WebQueryEngine engine, long timeoutMillis) {
+        this.engine = engine;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    public SearchResults search(String query, int limit) {
+        Set<Page> pages = engine.query(query, timeoutMillis);
+        long start = System.nanoTime();
+        List<Page> top = SearchResults.topPages(pages, limit);
+        RANK_TIME.recordSince(start);
+        return new SearchResults(top, pages.size(), false);
+    }
+}
@@ -0,0 +1,136 @@
+package CrawlerAndQueryEngine;
+
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * The process-wide registry of counters, gauges and latency histograms, rendered in the Prometheus
+ * text exposition format.
+ *
+ * A metric's name may carry labels, such as query_stage_seconds{stage="parse"}; metrics which only
+ * differ in their labels are rendered as one family. Histograms are rendered as summaries, with
+ * their durations converted to seconds.
+ */
+public class Metrics {
+    private static final Map<String, Object> metrics = new LinkedHashMap<>();
+    private static final Map<String, String> help = new HashMap<>();
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    //Cleared on threads doing work that isn't real traffic, such as warming up a server, so
+    //it doesn't show up in the latencies and counts
+    private static final ThreadLocal<Boolean> RECORDING = ThreadLocal.withInitial(() -> true);
+
+    /**
+     * Returns whether metrics are recorded for the current thread's work. Histograms check this
+     * themselves; counters of query work have to be checked before incrementing.
+     */
+    public static boolean isRecording() {
+        return RECORDING.get();
+    }
+
+    /**
+     * Starts or stops recording metrics for the current thread's work.
+     */
+    public static void setRecording(boolean recording) {
+        RECORDING.set(recording);
+    }
+
+    /**
+     * Returns the histogram with the given name, creating it if needed.
+     */
+    public static LatencyHistogram histogram(String name, String description) {
+        return (LatencyHistogram) register(name, description, new LatencyHistogram());
+    }
+
+    /**
+     * Returns the counter with the given name, creating it if needed.
+     */
+    public static LongAdder counter(String name, String description) {
+        return (LongAdder) register(name, description, new LongAdder());
+    }
+
+    /**
+     * Registers a gauge which reads its value when rendered, replacing any gauge of the same name.
+     */
+    public static synchronized void gauge(String name, String description, LongSupplier value) {
+        help.putIfAbsent(family(name), description);
+        metrics.put(name, value);
+    }
+
+    private static synchronized Object register(String name, String description, Object metric) {
+        help.putIfAbsent(family(name), description);
+        Object existing = metrics.putIfAbsent(name, metric);
+        return existing == null ? metric : existing;
+    }
+
+    /**
+     * Writes every metric to the given StringBuilder.
+     */
+    public static synchronized void render(StringBuilder out) {
+        Set<String> rendered = new HashSet<>();
+        for(String name: metrics.keySet()) {
+            String family = family(name);
+            if(!rendered.add(family)) {
+                continue;
+            }
+            //Keep every series of a family together
+            for(Map.Entry<String, Object> entry: metrics.entrySet()) {
+                if(family(entry.getKey()).equals(family)) {
+                    render(out, entry.getKey(), entry.getValue(), entry.getKey().equals(name));
+                }
+            }
+        }
+    }
+
+    private static void render(StringBuilder out, String name, Object metric, boolean first) {
+        String family = family(name);
+        String labels = name.substring(family.length());
+        if(metric instanceof LatencyHistogram) {
+            LatencyHistogram histogram = (LatencyHistogram) metric;
+            if(first) {
+                header(out, family, "summary");
+            }
+            for(double quantile: QUANTILES) {
+                out.append(family).append(withLabel(labels, "quantile=\"" + quantile + "\""))
+                        .append(' ').append(seconds(histogram.getPercentile(quantile))).append('\n');
+            }
+            out.append(family).append("_sum").append(labels).append(' ')
+                    .append(seconds(histogram.getSum())).append('\n');
+            out.append(family).append("_count").append(labels).append(' ')
+                    .append(histogram.getCount()).append('\n');
+        } else if(metric instanceof LongAdder) {
+            if(first) {
+                header(out, family, "counter");
+            }
+            out.append(name).append(' ').append(((LongAdder) metric).sum()).append('\n');
+        } else {
+            if(first) {
+                header(out, family, "gauge");
+            }
+            out.append(name).append(' ').append(((LongSupplier) metric).getAsLong()).append('\n');
+        }
+    }
+
+    private static void header(StringBuilder out, String family, String type) {
+        out.append("# HELP ").append(family).append(' ').append(help.get(family)).append('\n');
+        out.append("# TYPE ").append(family).append(' ').append(type).append('\n');
+    }
+
+    private static String family(String name) {
+        int brace = name.indexOf('{');
+        return brace < 0 ? name : name.substring(0, brace);
+    }
+
+    private static String withLabel(String labels, String label) {
+        if(labels.isEmpty()) {
+            return "{" + label + "}";
+        }
+        return labels.substring(0, labels.length() - 1) + "," + label + "}";
+    }
+
+    private static double seconds(long nanos) {
+        return nanos / 1e9;
+    }
+}
@@ -0,0 +1,86 @@
+package CrawlerAndQueryEngine;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * A lookup table of SimHash fingerprints which finds a previously added page within a given
+ * Hamming distance. Fingerprints are split into (distance + 1) bands; two fingerprints within the
+ * distance must agree exactly on at least one band, so only pages sharing a band are compared.
+ */
+public class NearDuplicateIndex {
+    private static class Entry {
+        final long fingerprint;
+        final Page page;
+
+        Entry(long fingerprint, Page page) {
+            this.fingerprint = fingerprint;
+            this.page = page;
+        }
+    }
+
+    private final int maxDistance;
+    //One table per band, from band value to the pages with that value
+    private final List<Map<Long, List<Entry>>> bands = new ArrayList<>();
+    //Each page's entry, by identity since a page's hash changes with its ID
+    private final Map<Page, Entry> entries = new IdentityHashMap<>();
+
+    public NearDuplicateIndex(int maxDistance) {
+        this.maxDistance = maxDistance;
+        for(int i = 0; i <= maxDistance; i++) {
+            bands.add(new HashMap<>());
+        }
+    }
+
+    //Returns a live page whose fingerprint is within maxDistance of the given one, or null.
+    //Pages found to be no longer live, having been deleted or replaced, are dropped.
+    public Page find(long fingerprint, Predicate<Page> live) {
+        for(int i = 0; i < bands.size(); i++) {
+            List<Entry> candidates = bands.get(i).get(band(fingerprint, i));
+            if(candidates == null) {
+                continue;
+            }
+            for(Entry candidate: new ArrayList<>(candidates)) {
+                if(!live.test(candidate.page)) {
+                    remove(candidate.page);
+                } else if(SimHash.distance(fingerprint, candidate.fingerprint) <= maxDistance) {
+                    return candidate.page;
+                }
+            }
+        }
+        return null;
+    }
+
+    public void add(long fingerprint, Page page) {
+        remove(page);
+        Entry entry = new Entry(fingerprint, page);
+        entries.put(page, entry);
+        for(int i = 0; i < bands.size(); i++) {
+            bands.get(i).computeIfAbsent(band(fingerprint, i), k -> new ArrayList<>(1)).add(entry);
+        }
+    }
+
+    //Forgets the page's fingerprint, if it has one
+    public void remove(Page page) {
+        Entry entry = entries.remove(page);
+        if(entry == null) {
+            return;
+        }
+        for(int i = 0; i < bands.size(); i++) {
+            Long key = band(entry.fingerprint, i);
+            List<Entry> candidates = bands.get(i).get(key);
+            candidates.remove(entry);
+            if(candidates.isEmpty()) {
+                bands.get(i).remove(key);
+            }
+        }
+    }
+
+    //Bands split the 64 bits as evenly as possible
+    private long band(long fingerprint, int band) {
+        int shift = band * 64 / bands.size();
+        int width = (band + 1) * 64 / bands.size() - shift;
+        long mask = width == 64 ? -1L : (1L << width) - 1;
+        return (fingerprint >>> shift) & mask;
+    }
+}
@@ -1,19 +1,30 @@
 package CrawlerAndQueryEngine;
 import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.net.MalformedURLException;
 import java.net.URL;
 
-public class Page implements Serializable, Comparable {
-    private static final long serialVersionUID = 1L;
+public class Page implements Serializable, Comparable<Page> {
+    private static final long serialVersionUID = 2L;
 
-    // The URL the page was located at.
-    private URL url;
+    // The URL the page was located at. Once the page is indexed, it and the page's
+    // connectedness are kept in the index's DocTable instead, and read from there.
+    private transient URL url;
+    private transient DocTable table;
 
-    private int connectedness = 1;
+    private transient int connectedness = 1;
     public void increment() {
-        connectedness++;
+        increment(1);
+    }
+    public void increment(int count) {
+        if(table != null) {
+            table.setConnectedness(ID, table.connectedness(ID) + count);
+        } else {
+            connectedness += count;
+        }
     }
     public int getConnectedness() {
-        return connectedness;
+        return table != null ? table.connectedness(ID) : connectedness;
     }
 
     private int ID;
@@ -21,9 +32,24 @@ public class Page implements Serializable, Comparable {
         this.url = url;
         this.ID = ID;
     }
+    //A page given a new ID is no longer the one in its table, so it takes its details back
     public void setID(int ID) {
+        if(table != null) {
+            url = getURL();
+            connectedness = getConnectedness();
+            table = null;
+        }
         this.ID = ID;
     }
+    public int getID() {
+        return ID;
+    }
+
+    //Moves the page's URL and connectedness to the table, which must already hold its record
+    void attach(DocTable table) {
+        this.table = table;
+        this.url = null;
+    }
 
 
 
@@ -38,7 +64,17 @@ public class Page implements Serializable, Comparable {
     /**
      * @return the URL of the page.
      */
-    public URL getURL() { return url; }
+    public URL getURL() {
+        if(table == null) {
+            return url;
+        }
+        try {
+            return new URL(table.url(ID));
+        } catch(MalformedURLException e) {
+            //Every URL in the table was a URL when it was added
+            throw new UncheckedIOException(e);
+        }
+    }
 
 
     @Override
@@ -47,7 +83,8 @@ public class Page implements Serializable, Comparable {
         //return url.hashCode();
     }
 
-    public int compareTo(Object other){
-        return ((Page) other).connectedness - connectedness;
+    //Most connected first
+    public int compareTo(Page other){
+        return other.getConnectedness() - getConnectedness();
     }
 }
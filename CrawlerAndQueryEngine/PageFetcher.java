@@ -0,0 +1,271 @@
+package CrawlerAndQueryEngine;
+
+import java.io.*;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.*;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fetches pages for the crawler, with limits on how long it waits and how much it reads.
+ *
+ * A page is read through a channel into a byte buffer taken from a shared pool, and decoded into
+ * characters only as the parser asks for them, so a fetch holds one buffer however long the page
+ * is. Pages longer than the maximum size are cut off there.
+ *
+ * The charset comes from a byte order mark, the Content-Type header or a <meta> tag near the start
+ * of the page, in that order, and is UTF-8 if none of them gives one.
+ */
+public class PageFetcher {
+    public static final int BUFFER_SIZE = 64 * 1024;
+    //How far into a page to look for a <meta> tag giving its charset
+    private static final int SNIFF_BYTES = 1024;
+
+    private static final LongAdder TRUNCATED = Metrics.counter(
+            "tsoogle_crawl_truncated_pages_total", "Pages cut off at the maximum page size");
+
+    private final int connectTimeoutMillis;
+    private final int readTimeoutMillis;
+    private final long maxPageBytes;
+    private final BlockingQueue<ByteBuffer> pool;
+    private final LongAdder bytesRead;
+
+    /**
+     * @param pooledBuffers the most buffers kept for reuse; fetches beyond that many at once get
+     *                      buffers of their own
+     * @param bytesRead     counts every byte read
+     */
+    public PageFetcher(int connectTimeoutMillis, int readTimeoutMillis, long maxPageBytes,
+            int pooledBuffers, LongAdder bytesRead) {
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.readTimeoutMillis = readTimeoutMillis;
+        this.maxPageBytes = maxPageBytes;
+        this.pool = new ArrayBlockingQueue<>(pooledBuffers);
+        this.bytesRead = bytesRead;
+    }
+
+    /**
+     * Starts fetching a page, returning a Reader of its text once its charset is known. The
+     * Reader must be closed, which gives its buffer back to the pool.
+     *
+     * @throws FileNotFoundException if there's no page at the URL
+     * @throws IOException if the page can't be fetched, or the server takes too long
+     */
+    public PageReader fetch(URL url) throws IOException {
+        long start = System.nanoTime();
+        String contentType = null;
+        ReadableByteChannel channel = null;
+        if(url.getProtocol().equals("file")) {
+            try {
+                channel = FileChannel.open(Paths.get(url.toURI()));
+            } catch(URISyntaxException | IllegalArgumentException e) {
+                //Not a path NIO understands, so leave it to URLConnection
+            } catch(NoSuchFileException e) {
+                throw new FileNotFoundException(url.toString());
+            }
+        }
+        if(channel == null) {
+            URLConnection connection = url.openConnection();
+            connection.setConnectTimeout(connectTimeoutMillis);
+            connection.setReadTimeout(readTimeoutMillis);
+            channel = Channels.newChannel(connection.getInputStream());
+            contentType = connection.getContentType();
+        }
+
+        ByteBuffer buffer = pool.poll();
+        if(buffer == null) {
+            buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        }
+        try {
+            return new PageReader(channel, buffer, contentType, start);
+        } catch(IOException | RuntimeException e) {
+            release(buffer);
+            channel.close();
+            throw e;
+        }
+    }
+
+    private void release(ByteBuffer buffer) {
+        buffer.clear();
+        pool.offer(buffer);
+    }
+
+    /**
+     * Decodes a page as it's read from its channel.
+     */
+    public class PageReader extends Reader {
+        private final ReadableByteChannel channel;
+        //Bytes read but not yet decoded, between position and limit
+        private ByteBuffer buffer;
+        private final CharsetDecoder decoder;
+        private long total = 0;
+        private boolean ended = false;
+        private boolean flushed = false;
+        private long fetchNanos = 0;
+
+        PageReader(ReadableByteChannel channel, ByteBuffer buffer, String contentType,
+                long startNanos) throws IOException {
+            this.channel = channel;
+            this.buffer = buffer;
+            buffer.clear().flip();
+            //Read enough of the page to find a <meta> tag near its start
+            while(!ended && buffer.remaining() < SNIFF_BYTES) {
+                fill();
+            }
+            decoder = detectCharset(buffer, contentType).newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            fetchNanos = System.nanoTime() - startNanos;
+        }
+
+        /**
+         * Returns the time spent fetching the page so far: connecting, and waiting for each part
+         * of the page to be read, but not decoding it or whatever the reader's caller did in
+         * between.
+         */
+        public long getFetchNanos() {
+            return fetchNanos;
+        }
+
+        //Reads more of the page after whatever hasn't been decoded yet
+        private void fill() throws IOException {
+            long start = System.nanoTime();
+            readChannel();
+            fetchNanos += System.nanoTime() - start;
+        }
+
+        private void readChannel() throws IOException {
+            buffer.compact();
+            long allowed = maxPageBytes - total;
+            if(allowed <= 0) {
+                TRUNCATED.increment();
+                ended = true;
+            } else {
+                buffer.limit((int) Math.min(buffer.capacity(), buffer.position() + allowed));
+                int n = channel.read(buffer);
+                if(n < 0) {
+                    ended = true;
+                } else {
+                    total += n;
+                    bytesRead.add(n);
+                }
+            }
+            buffer.flip();
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            if(buffer == null) {
+                throw new IOException("Reader is closed");
+            }
+            if(len == 0) {
+                return 0;
+            }
+            CharBuffer out = CharBuffer.wrap(cbuf, off, len);
+            while(out.position() == off) {
+                decoder.decode(buffer, out, ended);
+                if(out.position() > off) {
+                    break;
+                }
+                if(ended) {
+                    if(!flushed) {
+                        decoder.flush(out);
+                        flushed = true;
+                    }
+                    return out.position() > off ? out.position() - off : -1;
+                }
+                fill();
+            }
+            return out.position() - off;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if(buffer != null) {
+                release(buffer);
+                buffer = null;
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Returns the charset of a page from the start of it, skipping any byte order mark, and the
+     * Content-Type it was sent with, which may be null.
+     */
+    static Charset detectCharset(ByteBuffer start, String contentType) {
+        int p = start.position();
+        int available = start.remaining();
+        if(available >= 3 && (start.get(p) & 0xff) == 0xef && (start.get(p + 1) & 0xff) == 0xbb
+                && (start.get(p + 2) & 0xff) == 0xbf) {
+            start.position(p + 3);
+            return StandardCharsets.UTF_8;
+        }
+        if(available >= 2 && (start.get(p) & 0xff) == 0xfe && (start.get(p + 1) & 0xff) == 0xff) {
+            start.position(p + 2);
+            return StandardCharsets.UTF_16BE;
+        }
+        if(available >= 2 && (start.get(p) & 0xff) == 0xff && (start.get(p + 1) & 0xff) == 0xfe) {
+            start.position(p + 2);
+            return StandardCharsets.UTF_16LE;
+        }
+
+        Charset charset = contentType == null ? null : charsetParameter(contentType);
+        if(charset != null) {
+            return charset;
+        }
+
+        //Both <meta charset=...> and <meta http-equiv=... content="...; charset=..."> give
+        //the charset after "charset=", and only ASCII matters for finding it
+        byte[] head = new byte[Math.min(available, SNIFF_BYTES)];
+        start.duplicate().get(head);
+        String text = new String(head, StandardCharsets.ISO_8859_1).toLowerCase(Locale.ROOT);
+        int meta = text.indexOf("<meta");
+        while(meta >= 0) {
+            int end = text.indexOf('>', meta);
+            if(end < 0) {
+                break;
+            }
+            charset = charsetParameter(text.substring(meta, end));
+            if(charset != null) {
+                //A page can't really be UTF-16 if its ASCII could be read, so its meta is wrong
+                return charset.name().startsWith("UTF-16") ? StandardCharsets.UTF_8 : charset;
+            }
+            meta = text.indexOf("<meta", end);
+        }
+        return StandardCharsets.UTF_8;
+    }
+
+    //Returns the charset named after "charset=" in some text, or null if there isn't one we know
+    private static Charset charsetParameter(String text) {
+        int i = text.toLowerCase(Locale.ROOT).indexOf("charset=");
+        if(i < 0) {
+            return null;
+        }
+        i += "charset=".length();
+        while(i < text.length() && (text.charAt(i) == '"' || text.charAt(i) == '\'')) {
+            i++;
+        }
+        int end = i;
+        while(end < text.length() && "\"'; />".indexOf(text.charAt(end)) < 0) {
+            end++;
+        }
+        try {
+            return Charset.forName(text.substring(i, end));
+        } catch(IllegalArgumentException e) {
+            //Unknown or malformed names, including an empty one
+            return null;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package CrawlerAndQueryEngine;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A time budget for the query running on the current thread. Long-running loops in the index and
+ * query engine call check() as they go, which stops the query with a QueryTimeoutException once
+ * the budget runs out or the thread is interrupted. Queries run without a deadline are never
+ * stopped.
+ *
+ * A query that spreads its work over other threads hands them its deadline with resume(), and can
+ * stop them all with cancel().
+ */
+public class QueryDeadline {
+    private static final ThreadLocal<QueryDeadline> CURRENT = new ThreadLocal<>();
+
+    //Loops only look at the clock once every this many iterations
+    private static final int CHECK_INTERVAL = 1024;
+
+    private final long deadlineNanos;
+    private final QueryDeadline previous;
+    //Shared by every thread working on the same query
+    private final AtomicBoolean cancelled;
+
+    private QueryDeadline(long deadlineNanos, QueryDeadline previous, AtomicBoolean cancelled) {
+        this.deadlineNanos = deadlineNanos;
+        this.previous = previous;
+        this.cancelled = cancelled;
+    }
+
+    /**
+     * Starts a deadline timeoutMillis from now on the current thread. Must be matched by a call to
+     * end(), which restores any deadline that was running before.
+     */
+    public static QueryDeadline start(long timeoutMillis) {
+        QueryDeadline deadline = new QueryDeadline(
+                System.nanoTime() + timeoutMillis * 1000000L, CURRENT.get(), new AtomicBoolean());
+        CURRENT.set(deadline);
+        return deadline;
+    }
+
+    //Returns the deadline running on the current thread, or null if there isn't one
+    public static QueryDeadline current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Runs this deadline on the current thread too, such as a worker helping with the query. Must
+     * be matched by a call to end() on the returned deadline.
+     */
+    public QueryDeadline resume() {
+        QueryDeadline deadline = new QueryDeadline(deadlineNanos, CURRENT.get(), cancelled);
+        CURRENT.set(deadline);
+        return deadline;
+    }
+
+    //Stops the query on every thread running this deadline at their next check
+    public void cancel() {
+        cancelled.set(true);
+    }
+
+    public void end() {
+        if(previous == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(previous);
+        }
+    }
+
+    //Throws if the current thread's query has run out of time or been cancelled
+    public static void check() {
+        QueryDeadline deadline = CURRENT.get();
+        if(deadline == null) {
+            return;
+        }
+        if(Thread.currentThread().isInterrupted() || deadline.cancelled.get()) {
+            throw new QueryTimeoutException("Query was cancelled");
+        }
+        if(System.nanoTime() - deadline.deadlineNanos > 0) {
+            throw new QueryTimeoutException("Query ran out of time");
+        }
+    }
+
+    //Calls check() once every CHECK_INTERVAL values of a loop counter
+    public static void check(int count) {
+        if(count % CHECK_INTERVAL == 0) {
+            check();
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package CrawlerAndQueryEngine;
+
+import java.util.*;
+
+/**
+ * How a query was parsed and evaluated, for finding out why it's slow: the tokens and postfix form
+ * it was parsed from, and for every node of its tree, what was expected of it and what it took.
+ */
+public class QueryExplanation {
+    public final String query;
+    public final List<String> tokens;
+    public final List<String> postfix;
+    public final long parseNanos;
+    //Whether query() would have spread the evaluation over the fork-join pool
+    public final boolean parallel;
+    //The root of the tree, or null if the query has no words
+    public final Step root;
+
+    /**
+     * One node of the query tree, as it was evaluated.
+     */
+    public static class Step {
+        //Why the parent needed this node: intersect, check, subtract, union or complement
+        public final String role;
+        public final String operator;
+        public final String key;
+        //Position in the order nodes were evaluated in, from 1, or 0 if it wasn't evaluated here
+        public final int order;
+        //Estimated number of matching pages, assuming words appear on pages independently
+        public final long estimated;
+        //Number of matching pages, or -1 for a phrase only checked on its parent's candidates
+        public final int actual;
+        //Postings read by this node itself, not counting its children
+        public final long postings;
+        public final long selfNanos;
+        public final long totalNanos;
+        //Whether the result was already known from elsewhere in the same query
+        public final boolean memoHit;
+        public final List<Step> children;
+
+        Step(String role, QueryNode node, int order, long estimated, int actual, long postings,
+                long selfNanos, long totalNanos, boolean memoHit, List<Step> children) {
+            this.role = role;
+            this.operator = operator(node);
+            this.key = node.key();
+            this.order = order;
+            this.estimated = estimated;
+            this.actual = actual;
+            this.postings = postings;
+            this.selfNanos = selfNanos;
+            this.totalNanos = totalNanos;
+            this.memoHit = memoHit;
+            this.children = children;
+        }
+
+        private static String operator(QueryNode node) {
+            if(node instanceof QueryNode.And) {
+                return "and";
+            } else if(node instanceof QueryNode.Or) {
+                return "or";
+            } else if(node instanceof QueryNode.Not) {
+                return "not";
+            }
+            return node.key().startsWith("\"") ? "phrase" : "word";
+        }
+    }
+
+    public QueryExplanation(String query, List<String> tokens, List<String> postfix,
+            long parseNanos, boolean parallel, Step root) {
+        this.query = query;
+        this.tokens = tokens;
+        this.postfix = postfix;
+        this.parseNanos = parseNanos;
+        this.parallel = parallel;
+        this.root = root;
+    }
+
+    /**
+     * Returns the explanation as indented text, one line per node, children in the order their
+     * parent used them.
+     */
+    @Override
+    public String toString() {
+        StringBuilder output = new StringBuilder();
+        output.append("query:    ").append(query).append('\n');
+        output.append("tokens:   ").append(tokens).append('\n');
+        output.append("postfix:  ").append(postfix).append('\n');
+        output.append(String.format("parse:    %.3f ms%n", parseNanos / 1e6));
+        if(root == null) {
+            return output.append("no words to search for\n").toString();
+        }
+        //Explaining always evaluates on one thread, so that each step can be timed
+        output.append(String.format("evaluate: %.3f ms on one thread%n", root.totalNanos / 1e6));
+        if(parallel) {
+            output.append("query() would evaluate this in parallel\n");
+        }
+        append(output, root, 0);
+        return output.toString();
+    }
+
+    private static void append(StringBuilder output, Step step, int depth) {
+        for(int i = 0; i < depth; i++) {
+            output.append("  ");
+        }
+        if(step.order > 0) {
+            output.append('#').append(step.order).append(' ');
+        }
+        if(step.role != null) {
+            output.append(step.role).append(' ');
+        }
+        output.append(step.operator).append(' ').append(step.key);
+        if(step.memoHit) {
+            output.append("  memo hit, ").append(step.actual).append(" pages\n");
+            return;
+        }
+        output.append("  est ").append(step.estimated);
+        if(step.actual >= 0) {
+            output.append("  actual ").append(step.actual);
+        }
+        output.append("  postings ").append(step.postings);
+        if(step.order > 0) {
+            output.append(String.format("  %.3f ms", step.selfNanos / 1e6));
+            if(!step.children.isEmpty()) {
+                output.append(String.format(" (%.3f ms total)", step.totalNanos / 1e6));
+            }
+        }
+        output.append('\n');
+        for(Step child: step.children) {
+            append(output, child, depth + 1);
+        }
+    }
+}
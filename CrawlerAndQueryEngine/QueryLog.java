@@ -0,0 +1,295 @@
+package CrawlerAndQueryEngine;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * A sample of the queries a server has answered, kept on disk so that the next server to start
+ * can warm up on them.
+ *
+ * Answering a request only costs a random number and, for a sampled query, putting it on a queue.
+ * The queries are written out by a thread of the log's own, and dropped if it falls behind rather
+ * than holding up requests.
+ *
+ * The file starts with "TQL" and a version byte, followed by a record for each query: the time it
+ * was logged in seconds since the epoch and its length in UTF-8 bytes, both as variable-length
+ * ints of seven bits a byte, then the query itself. Once the file grows past its size limit it's
+ * moved to FILE.old and a new one is started, so between them they hold the latest queries.
+ */
+public class QueryLog implements Closeable {
+    private static final byte[] HEADER = {'T', 'Q', 'L', 1};
+    //Queries waiting to be written; more than this are dropped
+    private static final int QUEUE_SIZE = 4096;
+    //Longer queries are left out, since they're unlikely to be asked again
+    private static final int MAX_QUERY_BYTES = 1024;
+
+    private static final LongAdder LOGGED = Metrics.counter(
+            "tsoogle_query_log_queries_total", "Queries written to the query log");
+    private static final LongAdder DROPPED = Metrics.counter(
+            "tsoogle_query_log_dropped_total",
+            "Sampled queries dropped because the log fell behind");
+
+    private final File file;
+    private final int sampleEvery;
+    private final long maxBytes;
+    private final BlockingQueue<String> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+    private final Thread writer;
+    private volatile boolean closed = false;
+
+    /**
+     * Starts logging one in every sampleEvery queries to the given file, adding to it if it
+     * already exists.
+     */
+    public QueryLog(File file, int sampleEvery, long maxBytes) {
+        this.file = file;
+        this.sampleEvery = sampleEvery;
+        this.maxBytes = maxBytes;
+        writer = new Thread(this::write, "query-log");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    //Returns where a log is moved once it's full
+    private static File old(File file) {
+        return new File(file.getPath() + ".old");
+    }
+
+    /**
+     * Logs the query if it's picked for the sample. Never blocks.
+     */
+    public void record(String query) {
+        if(query == null || closed || ThreadLocalRandom.current().nextInt(sampleEvery) != 0) {
+            return;
+        }
+        if(!queue.offer(query)) {
+            DROPPED.increment();
+        }
+    }
+
+    private void write() {
+        DataOutputStream out = null;
+        long size = 0;
+        try {
+            while(!closed || !queue.isEmpty()) {
+                String query = queue.poll();
+                if(query == null) {
+                    //Nothing waiting, so what's been written goes to the file while we wait
+                    if(out != null) {
+                        out.flush();
+                    }
+                    query = queue.poll(1, TimeUnit.SECONDS);
+                    if(query == null) {
+                        continue;
+                    }
+                }
+                byte[] bytes = query.getBytes(StandardCharsets.UTF_8);
+                if(bytes.length == 0 || bytes.length > MAX_QUERY_BYTES) {
+                    continue;
+                }
+                if(out != null && size >= maxBytes) {
+                    out.close();
+                    out = null;
+                    Files.move(file.toPath(), old(file).toPath(),
+                            StandardCopyOption.REPLACE_EXISTING);
+                }
+                if(out == null) {
+                    size = open();
+                    out = new DataOutputStream(new BufferedOutputStream(
+                            new FileOutputStream(file, size > 0)));
+                    if(size == 0) {
+                        out.write(HEADER);
+                        size = HEADER.length;
+                    }
+                }
+                size += writeVarInt(out, System.currentTimeMillis() / 1000);
+                size += writeVarInt(out, bytes.length);
+                out.write(bytes);
+                size += bytes.length;
+                LOGGED.increment();
+            }
+        } catch(IOException e) {
+            System.err.println("Error: Couldn't write the query log, so queries aren't logged.");
+            e.printStackTrace();
+        } catch(InterruptedException e) {
+            //Nothing interrupts the writer, but if something did it would want it to stop
+        } finally {
+            closed = true;
+            if(out != null) {
+                try {
+                    out.close();
+                } catch(IOException e) {
+                    //Whatever was written is all there is
+                }
+            }
+        }
+    }
+
+    //Returns the size of the log to add to, or 0 to start it afresh if it isn't one of ours.
+    //A record cut short by a server stopped while writing it is cut off, since anything added
+    //after it couldn't be read.
+    private long open() throws IOException {
+        long end = read(file, (query, seconds) -> { });
+        if(end > 0 && end < file.length()) {
+            try(RandomAccessFile log = new RandomAccessFile(file, "rw")) {
+                log.setLength(end);
+            }
+        }
+        return end;
+    }
+
+    private static boolean hasHeader(File file) throws IOException {
+        try(DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            byte[] header = new byte[HEADER.length];
+            in.readFully(header);
+            return Arrays.equals(header, HEADER);
+        } catch(EOFException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Writes out every query still waiting, then stops logging.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns the queries logged most often in a log and the one before it, at most limit of
+     * them, most frequent first. Queries logged as often as each other come latest first.
+     */
+    public static List<String> topQueries(File file, int limit) throws IOException {
+        Map<String, int[]> counts = new HashMap<>();
+        int sequence = 0;
+        for(File log: new File[]{old(file), file}) {
+            for(String query: read(log)) {
+                int[] count = counts.computeIfAbsent(query, q -> new int[2]);
+                count[0]++;
+                count[1] = sequence++;
+            }
+        }
+        List<Map.Entry<String, int[]>> entries = new ArrayList<>(counts.entrySet());
+        entries.sort((a, b) -> a.getValue()[0] != b.getValue()[0]
+                ? Integer.compare(b.getValue()[0], a.getValue()[0])
+                : Integer.compare(b.getValue()[1], a.getValue()[1]));
+        List<String> output = new ArrayList<>(Math.min(limit, entries.size()));
+        for(Map.Entry<String, int[]> entry: entries.subList(0, Math.min(limit, entries.size()))) {
+            output.add(entry.getKey());
+        }
+        return output;
+    }
+
+    /**
+     * Returns every query in a log, oldest first, or none if there's no log there. A record cut
+     * short, by a server stopped while writing it, ends the log.
+     */
+    public static List<String> read(File file) throws IOException {
+        List<String> output = new ArrayList<>();
+        read(file, (query, seconds) -> output.add(query));
+        return output;
+    }
+
+    //Gives each query in a log, oldest first, along with when it was logged. Returns where the
+    //last whole record ends, or 0 if there's no log there.
+    private static long read(File file, ObjLongConsumer<String> action) throws IOException {
+        if(!file.exists() || !hasHeader(file)) {
+            return 0;
+        }
+        long end = HEADER.length;
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(file)))) {
+            in.skipBytes(HEADER.length);
+            while(true) {
+                long seconds = readVarInt(in);
+                if(seconds < 0) {
+                    break;
+                }
+                long length = readVarInt(in);
+                if(length < 0 || length > MAX_QUERY_BYTES) {
+                    break;
+                }
+                byte[] bytes = new byte[(int) length];
+                in.readFully(bytes);
+                action.accept(new String(bytes, StandardCharsets.UTF_8), seconds);
+                end += varIntSize(seconds) + varIntSize(length) + length;
+            }
+        } catch(EOFException e) {
+            //The last record was cut short
+        }
+        return end;
+    }
+
+    private static int varIntSize(long value) {
+        int bytes = 1;
+        while(value >= 0x80) {
+            value >>>= 7;
+            bytes++;
+        }
+        return bytes;
+    }
+
+    //Returns the number of bytes written
+    private static int writeVarInt(DataOutputStream out, long value) throws IOException {
+        int bytes = 1;
+        while(value >= 0x80) {
+            out.writeByte((int) (value & 0x7f) | 0x80);
+            value >>>= 7;
+            bytes++;
+        }
+        out.writeByte((int) value);
+        return bytes;
+    }
+
+    //Returns -1 at the end of the stream
+    private static long readVarInt(DataInputStream in) throws IOException {
+        long value = 0;
+        for(int shift = 0; shift < 64; shift += 7) {
+            int b = in.read();
+            if(b < 0) {
+                if(shift == 0) {
+                    return -1;
+                }
+                throw new EOFException();
+            }
+            value |= (long) (b & 0x7f) << shift;
+            if(b < 0x80) {
+                return value;
+            }
+        }
+        throw new EOFException();
+    }
+
+    /**
+     * Prints a log's queries, oldest first, one per line after the time they were logged.
+     *
+     *   java CrawlerAndQueryEngine.QueryLog queries.log
+     */
+    public static void main(String[] args) throws IOException {
+        if(args.length != 1) {
+            System.err.println("Usage: QueryLog queries.log");
+            System.exit(1);
+        }
+        read(new File(args[0]), (query, seconds) ->
+                System.out.println(Instant.ofEpochSecond(seconds) + "\t" + query));
+    }
+}
@@ -0,0 +1,288 @@
+package CrawlerAndQueryEngine;
+
+import java.util.*;
+
+/**
+ * A parsed query, as a tree of words and phrases combined with and, or and not.
+ *
+ * Every node has a canonical key: nodes with the same key always match the same pages, whatever
+ * order their operands were written in, so results can be shared between queries and repeated
+ * subexpressions.
+ */
+public abstract class QueryNode {
+    private final String key;
+
+    QueryNode(String key) {
+        this.key = key;
+    }
+
+    public String key() {
+        return key;
+    }
+
+    /**
+     * Returns the nodes whose results evaluate() needs.
+     */
+    public abstract List<QueryNode> dependencies();
+
+    /**
+     * Returns the pages matching this node, given the results of its dependencies. The results of
+     * dependencies are never modified, and neither is the returned set once it's been handed back.
+     */
+    public abstract Set<Page> evaluate(WebIndex index, Map<String, Set<Page>> results);
+
+    @Override
+    public String toString() {
+        return key;
+    }
+
+    /**
+     * A word or phrase.
+     */
+    public static class Term extends QueryNode {
+        private final String token;
+
+        //Takes a token from WebQueryEngine.tokenize, without any !
+        public Term(String token) {
+            super(canonical(token));
+            this.token = key();
+        }
+
+        //Phrases are reduced to their words separated by single spaces, or just the word if
+        //there's only one
+        private static String canonical(String token) {
+            if(token.charAt(0) != '"') {
+                return token;
+            }
+            StringBuilder words = new StringBuilder();
+            StringBuilder word = new StringBuilder();
+            for(int i = 1; i <= token.length(); i++) {
+                if(i < token.length() && Character.isLetterOrDigit(token.charAt(i))) {
+                    word.append(token.charAt(i));
+                } else if(word.length() > 0) {
+                    words.append(words.length() == 0 ? "" : " ").append(word);
+                    word.setLength(0);
+                }
+            }
+            return words.indexOf(" ") < 0 ? words.toString() : "\"" + words + "\"";
+        }
+
+        public List<QueryNode> dependencies() {
+            return Collections.emptyList();
+        }
+
+        //Words are read straight from the index where possible, since results are never modified
+        public Set<Page> evaluate(WebIndex index, Map<String, Set<Page>> results) {
+            if(token.isEmpty()) {
+                return new HashSet<>();
+            }
+            return token.charAt(0) == '"' ? index.search(token) : index.postings(token);
+        }
+    }
+
+    /**
+     * Every page not matching its operand.
+     */
+    public static class Not extends QueryNode {
+        private final QueryNode operand;
+
+        public Not(QueryNode operand) {
+            super("!" + operand.key());
+            this.operand = operand;
+        }
+
+        public QueryNode getOperand() {
+            return operand;
+        }
+
+        public List<QueryNode> dependencies() {
+            return Collections.singletonList(operand);
+        }
+
+        public Set<Page> evaluate(WebIndex index, Map<String, Set<Page>> results) {
+            return index.inverse(results.get(operand.key()));
+        }
+    }
+
+    /**
+     * Pages matching all of its operands.
+     */
+    public static class And extends QueryNode {
+        private final List<QueryNode> operands;
+
+        private And(List<QueryNode> operands) {
+            super(joinKeys("&", operands));
+            this.operands = operands;
+        }
+
+        //Returns the and of the two nodes, merging nested ands into one
+        public static QueryNode of(QueryNode lhs, QueryNode rhs) {
+            List<QueryNode> operands = new ArrayList<>();
+            for(QueryNode node: Arrays.asList(lhs, rhs)) {
+                if(node instanceof And) {
+                    operands.addAll(((And) node).operands);
+                } else {
+                    operands.add(node);
+                }
+            }
+            operands = canonicalOperands(operands);
+            return operands.size() == 1 ? operands.get(0) : new And(operands);
+        }
+
+        public List<QueryNode> getOperands() {
+            return operands;
+        }
+
+        /**
+         * Returns the phrases that are only checked on the pages matching the rest of the and,
+         * rather than being searched for on every page. If the and has nothing but phrases to
+         * include, the first is searched for to start from.
+         */
+        public List<QueryNode> checkedPhrases() {
+            List<QueryNode> output = new ArrayList<>();
+            boolean words = false;
+            for(QueryNode operand: operands) {
+                if(operand instanceof Term && operand.key().charAt(0) == '"') {
+                    output.add(operand);
+                } else if(!(operand instanceof Not)) {
+                    words = true;
+                }
+            }
+            if(!words && !output.isEmpty()) {
+                output.remove(0);
+            }
+            return output;
+        }
+
+        //Excluded operands are subtracted rather than intersected, so only the pages they
+        //exclude are needed, never everything else
+        public List<QueryNode> dependencies() {
+            List<QueryNode> checked = checkedPhrases();
+            List<QueryNode> output = new ArrayList<>(operands.size());
+            for(QueryNode operand: operands) {
+                if(operand instanceof Not) {
+                    output.add(((Not) operand).getOperand());
+                } else if(!checked.contains(operand)) {
+                    output.add(operand);
+                }
+            }
+            return output;
+        }
+
+        public Set<Page> evaluate(WebIndex index, Map<String, Set<Page>> results) {
+            List<QueryNode> checked = checkedPhrases();
+            List<Set<Page>> included = new ArrayList<>();
+            List<Set<Page>> excluded = new ArrayList<>();
+            for(QueryNode operand: operands) {
+                if(operand instanceof Not) {
+                    excluded.add(results.get(((Not) operand).getOperand().key()));
+                } else if(!checked.contains(operand)) {
+                    included.add(results.get(operand.key()));
+                }
+            }
+            if(included.isEmpty()) {
+                Set<Page> union = new HashSet<>();
+                for(Set<Page> pages: excluded) {
+                    union.addAll(pages);
+                }
+                return index.inverse(union);
+            }
+            //Only the pages of the smallest set can match, so test each of them against the others
+            included.sort(Comparator.comparingInt(Set::size));
+            Set<Page> smallest = included.get(0);
+            Set<Page> output = new HashSet<>(Math.max(16, (int) (smallest.size() / 0.75f) + 1));
+            int count = 0;
+            next: for(Page page: smallest) {
+                QueryDeadline.check(++count);
+                for(int i = 1; i < included.size(); i++) {
+                    if(!included.get(i).contains(page)) {
+                        continue next;
+                    }
+                }
+                output.add(page);
+            }
+            for(QueryNode phrase: checked) {
+                if(output.isEmpty()) {
+                    break;
+                }
+                output = index.searchPhraseAdd(phrase.key(), output);
+            }
+            //removeAll walks whichever of the two sets is smaller
+            for(Set<Page> pages: excluded) {
+                if(output.isEmpty()) {
+                    break;
+                }
+                output.removeAll(pages);
+            }
+            return output;
+        }
+    }
+
+    /**
+     * Pages matching any of its operands.
+     */
+    public static class Or extends QueryNode {
+        private final List<QueryNode> operands;
+
+        private Or(List<QueryNode> operands) {
+            super(joinKeys("|", operands));
+            this.operands = operands;
+        }
+
+        //Returns the or of the two nodes, merging nested ors into one
+        public static QueryNode of(QueryNode lhs, QueryNode rhs) {
+            List<QueryNode> operands = new ArrayList<>();
+            for(QueryNode node: Arrays.asList(lhs, rhs)) {
+                if(node instanceof Or) {
+                    operands.addAll(((Or) node).operands);
+                } else {
+                    operands.add(node);
+                }
+            }
+            operands = canonicalOperands(operands);
+            return operands.size() == 1 ? operands.get(0) : new Or(operands);
+        }
+
+        public List<QueryNode> getOperands() {
+            return operands;
+        }
+
+        public List<QueryNode> dependencies() {
+            return operands;
+        }
+
+        public Set<Page> evaluate(WebIndex index, Map<String, Set<Page>> results) {
+            //Start from the largest set, so the fewest pages are copied
+            List<Set<Page>> sets = new ArrayList<>();
+            for(QueryNode operand: operands) {
+                sets.add(results.get(operand.key()));
+            }
+            sets.sort(Comparator.comparingInt((Set<Page> s) -> s.size()).reversed());
+            Set<Page> output = new HashSet<>(sets.get(0));
+            for(int i = 1; i < sets.size(); i++) {
+                output.addAll(sets.get(i));
+            }
+            return output;
+        }
+    }
+
+    //Sorts operands by key and drops repeats, since and and or don't care about either
+    private static List<QueryNode> canonicalOperands(List<QueryNode> operands) {
+        Map<String, QueryNode> byKey = new TreeMap<>();
+        for(QueryNode operand: operands) {
+            byKey.putIfAbsent(operand.key(), operand);
+        }
+        return new ArrayList<>(byKey.values());
+    }
+
+    private static String joinKeys(String operator, List<QueryNode> operands) {
+        StringBuilder key = new StringBuilder(operator).append('(');
+        for(int i = 0; i < operands.size(); i++) {
+            if(i > 0) {
+                key.append(',');
+            }
+            key.append(operands.get(i).key());
+        }
+        return key.append(')').toString();
+    }
+}
@@ -0,0 +1,12 @@
+package CrawlerAndQueryEngine;
+
+/**
+ * Thrown when a query runs past its QueryDeadline or is cancelled.
+ */
+public class QueryTimeoutException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public QueryTimeoutException(String message) {
+        super(message);
+    }
+}
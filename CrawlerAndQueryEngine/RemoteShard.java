@@ -0,0 +1,62 @@
+package CrawlerAndQueryEngine;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * An index shard served by a ShardServer in another process.
+ *
+ * Each query uses its own connection. The request is a single "limit\tquery" line, and the
+ * response is the total number of hits on one line followed by a "connectedness\turl" line for
+ * each returned page, best first.
+ */
+public class RemoteShard implements IndexShard {
+    private final String host;
+    private final int port;
+    private final int timeoutMillis;
+
+    public RemoteShard(String host, int port, int timeoutMillis) {
+        this.host = host;
+        this.port = port;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Parses a shard address given as "host:port".
+     */
+    public static RemoteShard parse(String address, int timeoutMillis) {
+        int colon = address.lastIndexOf(':');
+        return new RemoteShard(address.substring(0, colon),
+                Integer.parseInt(address.substring(colon + 1)), timeoutMillis);
+    }
+
+    public SearchResults search(String query, int limit) throws IOException {
+        try(Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(host, port), timeoutMillis);
+            socket.setSoTimeout(timeoutMillis);
+
+            Writer out = new BufferedWriter(new OutputStreamWriter(
+                    socket.getOutputStream(), StandardCharsets.UTF_8));
+            out.write(limit + "\t" + query.replace('\n', ' ') + "\n");
+            out.flush();
+
+            BufferedReader in = new BufferedReader(new InputStreamReader(
+                    socket.getInputStream(), StandardCharsets.UTF_8));
+            String line = in.readLine();
+            if(line == null) {
+                throw new IOException("Shard " + host + ":" + port + " closed the connection");
+            }
+            int totalHits = Integer.parseInt(line);
+            List<Page> pages = new ArrayList<>();
+            while((line = in.readLine()) != null) {
+                int tab = line.indexOf('\t');
+                Page page = new Page(new URL(line.substring(tab + 1)));
+                page.increment(Integer.parseInt(line.substring(0, tab)) - 1);
+                pages.add(page);
+            }
+            return new SearchResults(pages, totalHits, false);
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package CrawlerAndQueryEngine;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes an HTTP response to a client as its body is produced.
+ *
+ * The body is collected in a reusable per-thread buffer. If it all fits, it is sent in one go with
+ * a Content-Length. Larger bodies are streamed as they're written: in chunks to HTTP/1.1 clients,
+ * or delimited by closing the connection for HTTP/1.0 clients. Bodies are gzipped for clients
+ * which accept it.
+ */
+public class ResponseWriter extends OutputStream {
+    //Bodies up to this size are sent with a Content-Length
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final ThreadLocal<byte[]> BUFFERS =
+            ThreadLocal.withInitial(() -> new byte[BUFFER_SIZE]);
+
+    private static final byte[] COMMON_HEADERS = ascii(
+            "Date: Fri, 31 Dec 1999 23:59:59 GMT\r\n" +
+            "Server: 314H/0.1\r\n" +
+            "Expires: Sat, 01 Jan 2000 00:59:59 GMT\r\n" +
+            "Last-modified: Fri, 09 Aug 1996 14:21:40 GMT\r\n" +
+            "Vary: Accept-Encoding\r\n" +
+            "Connection: close\r\n");
+    private static final byte[] CRLF = ascii("\r\n");
+    private static final byte[] LAST_CHUNK = ascii("0\r\n\r\n");
+
+    /**
+     * A response body which never changes, encoded and compressed once up front.
+     */
+    public static class StaticBody {
+        private final byte[] plain;
+        private final byte[] gzipped;
+
+        public StaticBody(String content) {
+            plain = content.getBytes(StandardCharsets.UTF_8);
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            try(GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+                gzip.write(plain);
+            } catch(IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            gzipped = compressed.toByteArray();
+        }
+    }
+
+    private final OutputStream out;
+    private final String contentType;
+    private final String statusLine;
+    private final boolean http11;
+    private final boolean gzip;
+    //Where written bytes go first: the compressor, or the body itself
+    private final OutputStream encoder;
+    private final Body body = new Body();
+    private boolean finished = false;
+
+    /**
+     * @param out         The client's connection.
+     * @param version     The HTTP version of the request, such as "HTTP/1.1".
+     * @param gzip        Whether the client accepts gzip encoding.
+     */
+    public ResponseWriter(OutputStream out, String version, boolean gzip, String status,
+            String contentType) throws IOException {
+        this.out = out;
+        this.contentType = contentType;
+        this.statusLine = statusLine(version, status);
+        this.http11 = statusLine.startsWith("HTTP/1.1");
+        this.gzip = gzip;
+        this.encoder = gzip ? new GZIPOutputStream(body, 8192) : body;
+    }
+
+    /**
+     * Returns whether a request's Accept-Encoding header allows a gzipped response.
+     */
+    public static boolean acceptsGzip(String acceptEncoding) {
+        if(acceptEncoding == null) {
+            return false;
+        }
+        for(String coding: acceptEncoding.split(",")) {
+            String[] parts = coding.trim().split(";");
+            if(parts[0].trim().equalsIgnoreCase("gzip")) {
+                return parts.length < 2 || !parts[1].trim().matches("q=0(\\.0*)?");
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Sends a whole response with a body that was prepared in advance.
+     */
+    public static void send(OutputStream out, String version, boolean gzip, String status,
+            String contentType, StaticBody content) throws IOException {
+        byte[] bytes = gzip ? content.gzipped : content.plain;
+        ByteArrayOutputStream response = new ByteArrayOutputStream(bytes.length + 512);
+        headers(response, statusLine(version, status), contentType, gzip,
+                "Content-Length: " + bytes.length);
+        response.write(bytes);
+        response.writeTo(out);
+        out.flush();
+    }
+
+    //Writes text to the body as UTF-8
+    public ResponseWriter write(String text) throws IOException {
+        encoder.write(text.getBytes(StandardCharsets.UTF_8));
+        return this;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        encoder.write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        encoder.write(b, off, len);
+    }
+
+    /**
+     * Ends the body and sends whatever hasn't been sent yet.
+     */
+    public void finish() throws IOException {
+        if(finished) {
+            return;
+        }
+        finished = true;
+        if(gzip) {
+            ((GZIPOutputStream) encoder).finish();
+        }
+        body.finish();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        finish();
+    }
+
+    private static void headers(OutputStream out, String statusLine, String contentType,
+            boolean gzip, String framing) throws IOException {
+        out.write(ascii(statusLine + "\r\n"));
+        out.write(COMMON_HEADERS);
+        out.write(ascii("Content-Type: " + contentType + "\r\n"));
+        if(gzip) {
+            out.write(ascii("Content-Encoding: gzip\r\n"));
+        }
+        if(framing != null) {
+            out.write(ascii(framing + "\r\n"));
+        }
+        out.write(CRLF);
+    }
+
+    //Answers in the client's version, or HTTP/1.0 for clients we know nothing about
+    private static String statusLine(String version, String status) {
+        return (version.equals("HTTP/1.1") ? "HTTP/1.1 " : "HTTP/1.0 ") + status;
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * The encoded body, which is held back until it's complete or too large to buffer.
+     */
+    private class Body extends OutputStream {
+        private final byte[] buffer = BUFFERS.get();
+        private int count = 0;
+        private boolean streaming = false;
+
+        @Override
+        public void write(int b) throws IOException {
+            if(count == buffer.length) {
+                flushBuffer();
+            }
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while(len > 0) {
+                if(count == buffer.length) {
+                    flushBuffer();
+                }
+                int n = Math.min(len, buffer.length - count);
+                System.arraycopy(b, off, buffer, count, n);
+                count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        //Sends the buffer as the next part of a streamed body
+        private void flushBuffer() throws IOException {
+            if(!streaming) {
+                streaming = true;
+                headers(out, statusLine, contentType, gzip,
+                        http11 ? "Transfer-Encoding: chunked" : null);
+            }
+            if(count == 0) {
+                return;
+            }
+            if(http11) {
+                out.write(ascii(Integer.toHexString(count) + "\r\n"));
+                out.write(buffer, 0, count);
+                out.write(CRLF);
+            } else {
+                out.write(buffer, 0, count);
+            }
+            count = 0;
+        }
+
+        private void finish() throws IOException {
+            if(!streaming) {
+                headers(out, statusLine, contentType, gzip, "Content-Length: " + count);
+                out.write(buffer, 0, count);
+                count = 0;
+                return;
+            }
+            flushBuffer();
+            if(http11) {
+                out.write(LAST_CHUNK);
+            }
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package CrawlerAndQueryEngine;
+
+import java.util.*;
+
+/**
+ * The best-ranked pages matching a query, along with how many pages matched in total.
+ */
+public class SearchResults {
+    private final List<Page> pages;
+    private final int totalHits;
+    private final boolean partial;
+
+    public SearchResults(List<Page> pages, int totalHits, boolean partial) {
+        this.pages = pages;
+        this.totalHits = totalHits;
+        this.partial = partial;
+    }
+
+    /**
+     * @return the highest ranked pages, best first.
+     */
+    public List<Page> getPages() { return pages; }
+
+    /**
+     * @return the number of pages that matched, including those not returned.
+     */
+    public int getTotalHits() { return totalHits; }
+
+    /**
+     * @return whether some part of the index didn't answer, so pages may be missing.
+     */
+    public boolean isPartial() { return partial; }
+
+    /**
+     * Returns the limit highest ranked pages of the given collection, best first, without sorting
+     * the whole collection.
+     */
+    public static List<Page> topPages(Collection<Page> pages, int limit) {
+        if(limit >= pages.size()) {
+            List<Page> output = new ArrayList<>(pages);
+            Collections.sort(output);
+            return output;
+        }
+        if(limit <= 0) {
+            return new ArrayList<>();
+        }
+
+        //Keep the worst of the best pages so far at the head of the heap
+        PriorityQueue<Page> best = new PriorityQueue<>(limit + 1, Collections.reverseOrder());
+        for(Page page: pages) {
+            if(best.size() < limit) {
+                best.add(page);
+            } else if(page.compareTo(best.peek()) < 0) {
+                best.poll();
+                best.add(page);
+            }
+        }
+        List<Page> output = new ArrayList<>(best);
+        Collections.sort(output);
+        return output;
+    }
+}
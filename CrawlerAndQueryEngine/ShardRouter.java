@@ -0,0 +1,111 @@
+package CrawlerAndQueryEngine;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Answers queries over a sharded index by sending each query to every shard in parallel and
+ * merging their best pages.
+ *
+ * Pages are ranked by connectedness, which a partitioned crawl counts entirely in the shard that
+ * holds the page, so the top pages of each shard merge into the exact global top pages. The total
+ * number of hits is the sum over the shards.
+ */
+public class ShardRouter implements IndexShard {
+    private static final LatencyHistogram MERGE_TIME = Metrics.histogram(
+            "tsoogle_query_stage_seconds{stage=\"merge\"}", "Time spent in each stage of a query");
+    private static final LongAdder SHARD_FAILURES = Metrics.counter(
+            "tsoogle_shard_failures_total", "Shard queries that failed or timed out");
+
+    private final List<IndexShard> shards;
+    private final long timeoutMillis;
+    private final boolean allowPartial;
+    //A thread per shard for each query answered at once. A shard that doesn't answer in time
+    //keeps its thread until its own timeout, so once they're all busy, further shard queries
+    //wait for at most one more query's worth and are otherwise failed straight away.
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * @param shards            The shards that together make up the index.
+     * @param concurrentQueries How many queries are answered at once.
+     * @param timeoutMillis     How long to wait for the shards to answer a query.
+     * @param allowPartial      Whether to answer with the shards that did respond when others fail
+     *                          or time out, rather than failing the whole query.
+     */
+    public ShardRouter(List<IndexShard> shards, int concurrentQueries, long timeoutMillis,
+            boolean allowPartial) {
+        this.shards = new ArrayList<>(shards);
+        this.timeoutMillis = timeoutMillis;
+        this.allowPartial = allowPartial;
+        int threads = Math.max(1, shards.size() * concurrentQueries);
+        executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, shards.size())), runnable -> {
+                    Thread thread = new Thread(runnable, "shard-query");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    /**
+     * Returns the limit highest ranked pages satisfying the query across every shard.
+     */
+    public SearchResults search(String query, int limit) throws IOException {
+        List<Future<SearchResults>> futures = new ArrayList<>();
+        //The shards' threads record metrics only if this one does
+        boolean recording = Metrics.isRecording();
+        for(IndexShard shard: shards) {
+            try {
+                futures.add(executor.submit(() -> {
+                    Metrics.setRecording(recording);
+                    return shard.search(query, limit);
+                }));
+            } catch(RejectedExecutionException e) {
+                //Failed like a shard that didn't answer, and counted below
+                CompletableFuture<SearchResults> rejected = new CompletableFuture<>();
+                rejected.completeExceptionally(e);
+                futures.add(rejected);
+            }
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        List<Page> pages = new ArrayList<>();
+        int totalHits = 0;
+        boolean partial = false;
+        for(int i = 0; i < futures.size(); i++) {
+            Future<SearchResults> future = futures.get(i);
+            try {
+                SearchResults results = future.get(
+                        Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                pages.addAll(results.getPages());
+                totalHits += results.getTotalHits();
+                partial |= results.isPartial();
+            } catch(TimeoutException | ExecutionException e) {
+                if(recording) {
+                    SHARD_FAILURES.increment();
+                }
+                future.cancel(true);
+                if(!allowPartial) {
+                    cancelAll(futures);
+                    throw new IOException("Shard " + i + " failed to answer '" + query + "'", e);
+                }
+                partial = true;
+            } catch(InterruptedException e) {
+                cancelAll(futures);
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while querying shards", e);
+            }
+        }
+        long start = System.nanoTime();
+        List<Page> top = SearchResults.topPages(pages, limit);
+        MERGE_TIME.recordSince(start);
+        return new SearchResults(top, totalHits, partial);
+    }
+
+    private void cancelAll(List<Future<SearchResults>> futures) {
+        for(Future<SearchResults> future: futures) {
+            future.cancel(true);
+        }
+    }
+}
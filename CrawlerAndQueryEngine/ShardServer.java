@@ -0,0 +1,106 @@
+package CrawlerAndQueryEngine;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.*;
+
+/**
+ * Serves one index shard to a ShardRouter in another process, using the protocol described in
+ * RemoteShard.
+ *
+ *   java CrawlerAndQueryEngine.ShardServer index-0.db 2001
+ */
+public class ShardServer {
+
+  public static void main(String[] args) throws Exception {
+    if (args.length != 2) {
+      System.err.println("Usage: ShardServer index.db port");
+      System.exit(1);
+    }
+    WebQueryEngine wqe = WebQueryEngine.fromIndex(
+        (WebIndex) Index.load(args[0]));
+    ShardServer server = new ShardServer(new LocalShard(wqe, QUERY_TIMEOUT_MILLIS));
+    server.serve(Integer.parseInt(args[1]));
+  }
+
+  // Queries taking longer than this are abandoned
+  private static final int QUERY_TIMEOUT_MILLIS = 2000;
+  // Routers that go this long without sending any of their request are dropped
+  private static final int CLIENT_READ_TIMEOUT_MILLIS = 1000;
+  // Queries answered at once; further queries wait in a queue, and queries
+  // arriving when it's full are turned away, which the router sees as a
+  // shard that didn't answer
+  private static final int MAX_CONCURRENT_QUERIES =
+      Runtime.getRuntime().availableProcessors();
+  private static final int MAX_QUEUED_QUERIES = 64;
+
+  private LocalShard shard;
+
+  public ShardServer(LocalShard shard) {
+    this.shard = shard;
+  }
+
+  /**
+   * Open the server to incoming connections, loop and respond.
+   *
+   * Each connection is answered by one of a fixed pool of workers, the same
+   * way WebServer handles requests, so one slow router doesn't hold up the
+   * rest.
+   */
+  public void serve(int port) throws IOException {
+    ServerSocket serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+    System.err.println("Running shard on port: " + port);
+
+    ThreadPoolExecutor workers = new ThreadPoolExecutor(
+        MAX_CONCURRENT_QUERIES, MAX_CONCURRENT_QUERIES, 0, TimeUnit.SECONDS,
+        new ArrayBlockingQueue<>(MAX_QUEUED_QUERIES));
+
+    while (true) {
+      Socket clientSocket = serverSocket.accept();
+      long acceptedNanos = System.nanoTime();
+      try {
+        clientSocket.setSoTimeout(CLIENT_READ_TIMEOUT_MILLIS);
+        workers.execute(() -> handle(clientSocket, acceptedNanos));
+      } catch (RejectedExecutionException | SocketException e) {
+        clientSocket.close();
+      }
+    }
+  }
+
+  /**
+   * Answers one query from a router.
+   */
+  private void handle(Socket clientSocket, long acceptedNanos) {
+    try (Socket socket = clientSocket) {
+      // The router has given up on a query that waited this long
+      if (System.nanoTime() - acceptedNanos >
+          TimeUnit.MILLISECONDS.toNanos(QUERY_TIMEOUT_MILLIS)) {
+        return;
+      }
+      BufferedReader in = new BufferedReader(new InputStreamReader(
+          socket.getInputStream(), StandardCharsets.UTF_8));
+      Writer out = new BufferedWriter(new OutputStreamWriter(
+          socket.getOutputStream(), StandardCharsets.UTF_8));
+
+      String request = in.readLine();
+      int tab = request == null ? -1 : request.indexOf('\t');
+      if (tab < 0) {
+        return;
+      }
+      SearchResults results = shard.search(request.substring(tab + 1),
+          Integer.parseInt(request.substring(0, tab)));
+
+      out.write(results.getTotalHits() + "\n");
+      for (Page p : results.getPages()) {
+        out.write(p.getConnectedness() + "\t" + p.getURL() + "\n");
+      }
+      out.flush();
+    } catch (SocketTimeoutException e) {
+      // The router didn't send its query in time
+    } catch (IOException | RuntimeException e) {
+      // A bad request shouldn't bring down the shard
+      e.printStackTrace(System.err);
+    }
+  }
+}
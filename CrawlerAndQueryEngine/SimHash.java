@@ -0,0 +1,71 @@
+package CrawlerAndQueryEngine;
+
+/**
+ * Builds a 64-bit SimHash fingerprint of a page from the words added to it. Pages with similar
+ * text get fingerprints that differ in only a few bits, so near-duplicates can be found by
+ * Hamming distance.
+ *
+ * The features are pairs of consecutive words rather than single words; otherwise the most common
+ * words dominate every fingerprint, and unrelated pages look alike.
+ */
+public class SimHash {
+    //Sum of +1/-1 votes for each bit of the fingerprint
+    private int[] weights = new int[64];
+    //Hash of the word before the current one
+    private long previous = 0;
+
+    //Adds the next word of the page to the fingerprint
+    public void add(String word) {
+        long wordHash = hash(word);
+        long hash = mix(wordHash ^ Long.rotateLeft(previous, 21));
+        previous = wordHash;
+        for(int i = 0; i < 64; i++) {
+            if(((hash >>> i) & 1) != 0) {
+                weights[i]++;
+            } else {
+                weights[i]--;
+            }
+        }
+    }
+
+    //Returns the fingerprint of every word added since the last reset
+    public long fingerprint() {
+        long fingerprint = 0;
+        for(int i = 0; i < 64; i++) {
+            if(weights[i] > 0) {
+                fingerprint |= 1L << i;
+            }
+        }
+        return fingerprint;
+    }
+
+    public void reset() {
+        java.util.Arrays.fill(weights, 0);
+        previous = 0;
+    }
+
+    //Number of bits that differ between two fingerprints
+    public static int distance(long lhs, long rhs) {
+        return Long.bitCount(lhs ^ rhs);
+    }
+
+    //64-bit FNV-1a hash of a word
+    private static long hash(String word) {
+        long hash = 0xcbf29ce484222325L;
+        for(int i = 0; i < word.length(); i++) {
+            hash ^= word.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    //Finalizer so that every bit of the result depends on every bit of the input
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,184 @@
+package CrawlerAndQueryEngine;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Builds the snippet shown under a search result: the stretch of the page's text with the most
+ * matches of the query, with the matches highlighted.
+ *
+ * Matches are found from the positions in the index, so only the text of the chosen stretch is
+ * scanned, and the text itself comes from a DocStore.
+ */
+public class SnippetGenerator {
+    //Number of words shown in a snippet
+    private static final int SNIPPET_WORDS = 30;
+    //Words shown before the first match, to give it some context
+    private static final int LEAD_WORDS = 5;
+
+    private final WebIndex index;
+    private final DocStore docs;
+
+    public SnippetGenerator(WebIndex index, DocStore docs) {
+        this.index = index;
+        this.docs = docs;
+    }
+
+    /**
+     * Returns the words and phrases of a query that pages are matched on, lower-cased, each as a
+     * list of words. Words and phrases the query excludes with ! are left out.
+     */
+    public static List<List<String>> queryPhrases(String query) {
+        List<List<String>> phrases = new ArrayList<>();
+        boolean excluded = false;
+        int i = 0;
+        while(i < query.length()) {
+            char c = query.charAt(i);
+            if(c == '!') {
+                excluded = true;
+                i++;
+            } else if(c == '"') {
+                int end = query.indexOf('"', i + 1);
+                if(end < 0) {
+                    end = query.length();
+                }
+                List<String> phrase = words(query.substring(i + 1, end));
+                if(!excluded && !phrase.isEmpty()) {
+                    phrases.add(phrase);
+                }
+                excluded = false;
+                i = end + 1;
+            } else if(Character.isLetterOrDigit(c)) {
+                int start = i;
+                while(i < query.length() && Character.isLetterOrDigit(query.charAt(i))) {
+                    i++;
+                }
+                if(!excluded) {
+                    phrases.add(words(query.substring(start, i)));
+                }
+                excluded = false;
+            } else {
+                i++;
+            }
+        }
+        return phrases;
+    }
+
+    private static List<String> words(String text) {
+        List<String> words = new ArrayList<>();
+        StringBuilder word = new StringBuilder();
+        for(int i = 0; i <= text.length(); i++) {
+            if(i < text.length() && Character.isLetterOrDigit(text.charAt(i))) {
+                word.append(Character.toLowerCase(text.charAt(i)));
+            } else if(word.length() > 0) {
+                words.add(word.toString());
+                word.setLength(0);
+            }
+        }
+        return words;
+    }
+
+    /**
+     * Returns the snippet of the given page for the given query phrases as HTML, or null if the
+     * page's text isn't stored or nothing on it matches.
+     */
+    public String snippet(Page page, List<List<String>> phrases) throws IOException {
+        //Every match as (first word, number of words), in order
+        List<int[]> matches = new ArrayList<>();
+        for(List<String> phrase: phrases) {
+            int[][] positions = new int[phrase.size()][];
+            for(int k = 0; k < phrase.size(); k++) {
+                positions[k] = index.positions(phrase.get(k), page);
+            }
+            if(Arrays.asList(positions).contains(null)) {
+                continue;
+            }
+            next: for(int start: positions[0]) {
+                for(int k = 1; k < positions.length; k++) {
+                    if(Arrays.binarySearch(positions[k], start + k) < 0) {
+                        continue next;
+                    }
+                }
+                matches.add(new int[]{start, phrase.size()});
+            }
+        }
+        if(matches.isEmpty()) {
+            return null;
+        }
+        matches.sort((a, b) -> Integer.compare(a[0], b[0]));
+
+        //Find the window holding the most matches, starting a little before one of them
+        int bestStart = 0;
+        int bestCount = -1;
+        int last = 0;
+        for(int first = 0; first < matches.size(); first++) {
+            int windowStart = Math.max(0, matches.get(first)[0] - LEAD_WORDS);
+            last = Math.max(last, first);
+            while(last + 1 < matches.size() && matches.get(last + 1)[0] + matches.get(last + 1)[1]
+                    <= windowStart + SNIPPET_WORDS) {
+                last++;
+            }
+            if(last - first + 1 > bestCount) {
+                bestCount = last - first + 1;
+                bestStart = windowStart;
+            }
+        }
+        int bestEnd = bestStart + SNIPPET_WORDS;
+
+        DocStore.Document doc = docs.get(page.getID());
+        if(doc == null) {
+            return null;
+        }
+        boolean[] highlighted = new boolean[SNIPPET_WORDS];
+        for(int[] match: matches) {
+            for(int w = Math.max(match[0], bestStart); w < Math.min(match[0] + match[1], bestEnd); w++) {
+                highlighted[w - bestStart] = true;
+            }
+        }
+
+        //Walk the words of the text up to the end of the window, in the same way it was indexed
+        String text = doc.text;
+        StringBuilder output = new StringBuilder(SNIPPET_WORDS * 10);
+        if(bestStart > 0) {
+            output.append("... ");
+        }
+        int word = 0;
+        int copied = -1;
+        int i = 0;
+        while(i < text.length() && word < bestEnd) {
+            if(!Character.isLetterOrDigit(text.charAt(i))) {
+                i++;
+                continue;
+            }
+            int start = i;
+            while(i < text.length() && Character.isLetterOrDigit(text.charAt(i))) {
+                i++;
+            }
+            if(word >= bestStart) {
+                //Copy what came between this word and the last one shown
+                if(copied >= 0) {
+                    Html.appendEscaped(output, text, copied, start);
+                }
+                if(highlighted[word - bestStart]) {
+                    output.append("<b>");
+                    Html.appendEscaped(output, text, start, i);
+                    output.append("</b>");
+                } else {
+                    Html.appendEscaped(output, text, start, i);
+                }
+                copied = i;
+            }
+            word++;
+        }
+        if(copied < 0) {
+            return null;
+        }
+        while(i < text.length() && !Character.isLetterOrDigit(text.charAt(i))) {
+            i++;
+        }
+        if(i < text.length()) {
+            output.append(" ...");
+        }
+        return output.toString();
+    }
+}
@@ -0,0 +1,196 @@
+package CrawlerAndQueryEngine;
+
+import java.util.*;
+
+/**
+ * Corrects misspelt words to the closest words in the index, using symmetric deletes.
+ *
+ * Every word of the index is stored under each string that can be made by deleting up to
+ * MAX_DISTANCE characters from its start. A misspelling shares one of these deletes with every
+ * word within MAX_DISTANCE edits of it, so looking up its own deletes finds the candidates
+ * without comparing it against the whole dictionary. Only the first PREFIX_LENGTH characters are
+ * used, which keeps the number of deletes per word small; candidates are then checked against the
+ * whole word.
+ *
+ * The deletes are kept as one sorted array of (delete hash, word number) pairs packed into longs,
+ * so the structure costs 8 bytes per delete and no objects.
+ */
+public class SpellingCorrector {
+    public static final int MAX_DISTANCE = 2;
+    private static final int PREFIX_LENGTH = 7;
+
+    private final String[] terms;
+    private final int[] frequencies;
+    //Sorted (hash of delete << 32 | index into terms)
+    private final long[] deletes;
+
+    /**
+     * @param frequencies The number of pages containing each word.
+     */
+    public SpellingCorrector(Map<String, Integer> frequencies) {
+        terms = frequencies.keySet().toArray(new String[0]);
+        Arrays.sort(terms);
+        this.frequencies = new int[terms.length];
+        for(int i = 0; i < terms.length; i++) {
+            this.frequencies[i] = frequencies.get(terms[i]);
+        }
+
+        long[] entries = new long[terms.length * 8];
+        int count = 0;
+        Set<String> termDeletes = new HashSet<>();
+        for(int i = 0; i < terms.length; i++) {
+            termDeletes.clear();
+            addDeletes(prefix(terms[i]), MAX_DISTANCE, termDeletes);
+            for(String delete: termDeletes) {
+                if(count == entries.length) {
+                    entries = Arrays.copyOf(entries, entries.length * 2);
+                }
+                entries[count++] = ((long) delete.hashCode() << 32) | i;
+            }
+        }
+        deletes = Arrays.copyOf(entries, count);
+        Arrays.sort(deletes);
+    }
+
+    /**
+     * Builds a corrector for the words of the given indexes, weighted by how many live pages
+     * contain them.
+     */
+    public static SpellingCorrector fromIndexes(Collection<WebIndex> indexes) {
+        Map<String, Integer> frequencies = new HashMap<>();
+        for(WebIndex index: indexes) {
+            for(String term: index.terms()) {
+                frequencies.merge(term, index.docFrequency(term), Integer::sum);
+            }
+        }
+        return new SpellingCorrector(frequencies);
+    }
+
+    //Returns whether the word is in the dictionary
+    public boolean contains(String word) {
+        return Arrays.binarySearch(terms, word) >= 0;
+    }
+
+    /**
+     * Returns the closest word in the dictionary to the given word, preferring the most common of
+     * equally close words, or null if none is within MAX_DISTANCE edits. Words in the dictionary
+     * are their own correction.
+     */
+    public String correct(String word) {
+        if(contains(word)) {
+            return word;
+        }
+        String wordPrefix = prefix(word);
+        Set<String> wordDeletes = new HashSet<>();
+        addDeletes(wordPrefix, MAX_DISTANCE, wordDeletes);
+        //Longest deletes first: a word within d edits always shares a delete with this one
+        //that both reach by deleting at most d characters, so once a close word is found the
+        //shorter deletes can't find a closer one
+        List<String> ordered = new ArrayList<>(wordDeletes);
+        ordered.sort((a, b) -> b.length() - a.length());
+
+        Set<Integer> checked = new HashSet<>();
+        int best = -1;
+        int bestDistance = MAX_DISTANCE + 1;
+        for(String delete: ordered) {
+            if(wordPrefix.length() - delete.length() > Math.min(bestDistance, MAX_DISTANCE)) {
+                break;
+            }
+            long key = (long) delete.hashCode() << 32;
+            //Find the first entry for this hash; entries never have a negative low half
+            int i = Arrays.binarySearch(deletes, key);
+            if(i < 0) {
+                i = -i - 1;
+            }
+            for(; i < deletes.length && (deletes[i] & 0xFFFFFFFF00000000L) == key; i++) {
+                int candidate = (int) deletes[i];
+                String term = terms[candidate];
+                int limit = Math.min(bestDistance, MAX_DISTANCE);
+                if(Math.min(term.length(), PREFIX_LENGTH) - delete.length() > limit
+                        || Math.abs(term.length() - word.length()) > limit
+                        || !checked.add(candidate)) {
+                    continue;
+                }
+                int distance = distance(word, term, limit + 1);
+                if(distance > MAX_DISTANCE) {
+                    continue;
+                }
+                //Equally close words are ranked by frequency, then alphabetically
+                if(distance < bestDistance || (distance == bestDistance
+                        && (frequencies[candidate] > frequencies[best]
+                        || (frequencies[candidate] == frequencies[best] && candidate < best)))) {
+                    best = candidate;
+                    bestDistance = distance;
+                }
+            }
+        }
+        return best < 0 ? null : terms[best];
+    }
+
+    private static String prefix(String word) {
+        return word.length() > PREFIX_LENGTH ? word.substring(0, PREFIX_LENGTH) : word;
+    }
+
+    //Adds the word and everything made by deleting up to the given number of characters from it
+    private static void addDeletes(String word, int distance, Set<String> output) {
+        if(!output.add(word) || distance == 0) {
+            return;
+        }
+        for(int i = 0; i < word.length(); i++) {
+            addDeletes(word.substring(0, i) + word.substring(i + 1), distance - 1, output);
+        }
+    }
+
+    /**
+     * Returns the number of insertions, deletions, substitutions and swaps of adjacent characters
+     * needed to turn a into b, or limit if it's at least limit.
+     */
+    static int distance(String a, String b, int limit) {
+        //Matching characters at either end never need editing
+        int start = 0;
+        int aEnd = a.length();
+        int bEnd = b.length();
+        while(start < aEnd && start < bEnd && a.charAt(start) == b.charAt(start)) {
+            start++;
+        }
+        while(aEnd > start && bEnd > start && a.charAt(aEnd - 1) == b.charAt(bEnd - 1)) {
+            aEnd--;
+            bEnd--;
+        }
+        if(aEnd == start || bEnd == start) {
+            return Math.min(Math.max(aEnd, bEnd) - start, limit);
+        }
+        a = a.substring(start, aEnd);
+        b = b.substring(start, bEnd);
+
+        int[] before = new int[b.length() + 1];
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for(int j = 0; j <= b.length(); j++) {
+            previous[j] = j;
+        }
+        for(int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            int rowMin = i;
+            for(int j = 1; j <= b.length(); j++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                int d = Math.min(Math.min(previous[j] + 1, current[j - 1] + 1),
+                        previous[j - 1] + cost);
+                if(i > 1 && j > 1 && a.charAt(i - 1) == b.charAt(j - 2)
+                        && a.charAt(i - 2) == b.charAt(j - 1)) {
+                    d = Math.min(d, before[j - 2] + 1);
+                }
+                current[j] = d;
+                rowMin = Math.min(rowMin, d);
+            }
+            if(rowMin >= limit) {
+                return limit;
+            }
+            int[] spare = before;
+            before = previous;
+            previous = current;
+            current = spare;
+        }
+        return Math.min(previous[b.length()], limit);
+    }
+}
@@ -0,0 +1,198 @@
+package CrawlerAndQueryEngine;
+
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * Suggests completions of a partly typed word, most popular first.
+ *
+ * Terms are held in a trie laid out in flat arrays. Each node's children are stored next to each
+ * other and sorted by character, and each node keeps its best completions precomputed, so a
+ * lookup only walks the prefix and copies out a list.
+ */
+public class SuggestionIndex implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    //The most completions kept for each prefix
+    public static final int MAX_SUGGESTIONS = 10;
+
+    private final String[] terms;
+    //For each node: the character leading to it, and the range of its children
+    private final char[] labels;
+    private final int[] firstChild;
+    private final int[] childCount;
+    //Node n's best completions are topTerms[topStart[n]] to topTerms[topStart[n + 1] - 1]
+    private final int[] topStart;
+    private final int[] topTerms;
+
+    /**
+     * Collects terms and their weights, then lays them out as a SuggestionIndex.
+     */
+    public static class Builder {
+        private final Map<String, Long> weights = new HashMap<>();
+
+        //Adds weight to a term, such as the number of pages containing it
+        public Builder add(String term, long weight) {
+            if(!term.isEmpty()) {
+                weights.merge(term, weight, Long::sum);
+            }
+            return this;
+        }
+
+        //Adds every word of an index, weighted by the number of live pages it appears on
+        public Builder addIndex(WebIndex index) {
+            for(String term: index.terms()) {
+                add(term, index.docFrequency(term));
+            }
+            return this;
+        }
+
+        public SuggestionIndex build() {
+            return new SuggestionIndex(weights);
+        }
+    }
+
+    private SuggestionIndex(Map<String, Long> weights) {
+        terms = weights.keySet().toArray(new String[0]);
+        Arrays.sort(terms);
+        long[] termWeights = new long[terms.length];
+        for(int i = 0; i < terms.length; i++) {
+            termWeights[i] = weights.get(terms[i]);
+        }
+
+        //Lay the nodes out breadth first, so each node's children are numbered consecutively.
+        //Node n covers the sorted terms from rangeStart[n] to rangeEnd[n] - 1, which all share its
+        //prefix, and the first of them is the prefix itself when that is a term.
+        int capacity = 16;
+        char[] labels = new char[capacity];
+        int[] firstChild = new int[capacity];
+        int[] childCount = new int[capacity];
+        int[] rangeStart = new int[capacity];
+        int[] rangeEnd = new int[capacity];
+        int[] depth = new int[capacity];
+        int nodes = 1;
+        rangeEnd[0] = terms.length;
+        for(int n = 0; n < nodes; n++) {
+            int start = rangeStart[n];
+            int end = rangeEnd[n];
+            int d = depth[n];
+            if(start < end && terms[start].length() == d) {
+                start++;
+            }
+            firstChild[n] = nodes;
+            while(start < end) {
+                char c = terms[start].charAt(d);
+                int next = start + 1;
+                while(next < end && terms[next].charAt(d) == c) {
+                    next++;
+                }
+                if(nodes == capacity) {
+                    capacity *= 2;
+                    labels = Arrays.copyOf(labels, capacity);
+                    firstChild = Arrays.copyOf(firstChild, capacity);
+                    childCount = Arrays.copyOf(childCount, capacity);
+                    rangeStart = Arrays.copyOf(rangeStart, capacity);
+                    rangeEnd = Arrays.copyOf(rangeEnd, capacity);
+                    depth = Arrays.copyOf(depth, capacity);
+                }
+                labels[nodes] = c;
+                rangeStart[nodes] = start;
+                rangeEnd[nodes] = next;
+                depth[nodes] = d + 1;
+                nodes++;
+                start = next;
+            }
+            childCount[n] = nodes - firstChild[n];
+        }
+
+        //Children are numbered after their parents, so working backwards means each node's
+        //children already know their best completions
+        int[][] top = new int[nodes][];
+        for(int n = nodes - 1; n >= 0; n--) {
+            List<Integer> candidates = new ArrayList<>();
+            int start = rangeStart[n];
+            if(start < rangeEnd[n] && terms[start].length() == depth[n]) {
+                candidates.add(start);
+            }
+            for(int child = firstChild[n]; child < firstChild[n] + childCount[n]; child++) {
+                for(int term: top[child]) {
+                    candidates.add(term);
+                }
+            }
+            candidates.sort((a, b) -> termWeights[a] != termWeights[b]
+                    ? Long.compare(termWeights[b], termWeights[a])
+                    : terms[a].compareTo(terms[b]));
+            int count = Math.min(candidates.size(), MAX_SUGGESTIONS);
+            top[n] = new int[count];
+            for(int i = 0; i < count; i++) {
+                top[n][i] = candidates.get(i);
+            }
+        }
+
+        this.labels = Arrays.copyOf(labels, nodes);
+        this.firstChild = Arrays.copyOf(firstChild, nodes);
+        this.childCount = Arrays.copyOf(childCount, nodes);
+        this.topStart = new int[nodes + 1];
+        int total = 0;
+        for(int n = 0; n < nodes; n++) {
+            topStart[n] = total;
+            total += top[n].length;
+        }
+        topStart[nodes] = total;
+        this.topTerms = new int[total];
+        for(int n = 0; n < nodes; n++) {
+            System.arraycopy(top[n], 0, topTerms, topStart[n], top[n].length);
+        }
+    }
+
+    //Returns the number of distinct terms that can be suggested
+    public int size() {
+        return terms.length;
+    }
+
+    //Returns the estimated bytes of the trie's arrays, leaving out the terms, which are usually
+    //the index's own Strings
+    public long heapBytes() {
+        return IndexStats.referenceArrayBytes(terms.length) + IndexStats.charArrayBytes(labels.length)
+                + IndexStats.intArrayBytes(firstChild.length)
+                + IndexStats.intArrayBytes(childCount.length)
+                + IndexStats.intArrayBytes(topStart.length)
+                + IndexStats.intArrayBytes(topTerms.length);
+    }
+
+    /**
+     * Returns up to limit terms starting with the given prefix, most popular first.
+     */
+    public List<String> suggest(String prefix, int limit) {
+        int node = 0;
+        for(int i = 0; i < prefix.length(); i++) {
+            node = child(node, prefix.charAt(i));
+            if(node < 0) {
+                return Collections.emptyList();
+            }
+        }
+        int count = Math.max(0, Math.min(limit, topStart[node + 1] - topStart[node]));
+        List<String> output = new ArrayList<>(count);
+        for(int i = 0; i < count; i++) {
+            output.add(terms[topTerms[topStart[node] + i]]);
+        }
+        return output;
+    }
+
+    //Returns the child of the node reached by the given character, or -1 if there isn't one
+    private int child(int node, char c) {
+        int low = firstChild[node];
+        int high = low + childCount[node] - 1;
+        while(low <= high) {
+            int mid = (low + high) >>> 1;
+            if(labels[mid] < c) {
+                low = mid + 1;
+            } else if(labels[mid] > c) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+}
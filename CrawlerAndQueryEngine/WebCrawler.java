@@ -3,61 +3,195 @@ package CrawlerAndQueryEngine;
 import java.io.*;
 import java.net.*;
 import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
 
+import org.attoparser.ParseException;
 import org.attoparser.simple.*;
 import org.attoparser.config.ParseConfiguration;
 
 /**
  * The entry-point for WebCrawler; takes in a list of URLs to start crawling from and saves an index
- * to index.db.
+ * to index.db, and the text of every indexed page to docs.db for snippets.
+ *
+ * A crawl can also be split across several processes on one machine, each owning a hash partition
+ * of the hosts:
+ *
+ *   java CrawlerAndQueryEngine.WebCrawler --partition 0/4 --spool /tmp/spool URL...
+ *   java CrawlerAndQueryEngine.WebCrawler --partition 1/4 --spool /tmp/spool URL...
+ *   ...
+ *
+ * Every process is given the same seed URLs and the same empty spool directory, crawls the seeds
+ * it owns, and forwards links to other partitions through the spool. Partition i saves its index
+ * shard to index-i.db and its pages to docs-i.db; the shards can be combined with IndexMerger.
+ *
+ * With --common-words N, pairs of words get postings of their own whenever one of the words is on
+ * at least N pages, which makes phrases of common words much quicker to find for a larger index.
  */
 public class WebCrawler {
+    //How long an idle partition waits before checking the spool again
+    private static final long POLL_MILLIS = 200;
+    //Limits on fetching a page; longer pages are cut off
+    private static final int CONNECT_TIMEOUT_MILLIS = 10000;
+    private static final int READ_TIMEOUT_MILLIS = 10000;
+    private static final long MAX_PAGE_BYTES = 8 * 1024 * 1024;
+
+    //A page is parsed as it's read, so the time spent waiting for it is taken out of the time
+    //spent parsing it and counted as fetching
+    private static final LatencyHistogram FETCH_TIME = Metrics.histogram(
+            "tsoogle_crawl_stage_seconds{stage=\"fetch\"}",
+            "Time spent in each stage of crawling a page");
+    private static final LatencyHistogram PARSE_TIME = Metrics.histogram(
+            "tsoogle_crawl_stage_seconds{stage=\"parse\"}",
+            "Time spent in each stage of crawling a page");
+    private static final LongAdder PAGES = Metrics.counter(
+            "tsoogle_crawl_pages_total", "Pages fetched by the crawler");
+    private static final LongAdder BYTES = Metrics.counter(
+            "tsoogle_crawl_bytes_total", "Bytes fetched by the crawler");
+    private static final LongAdder FAILURES = Metrics.counter(
+            "tsoogle_crawl_failed_fetches_total", "Pages that couldn't be fetched");
+
+    private static final PageFetcher FETCHER = new PageFetcher(CONNECT_TIMEOUT_MILLIS,
+            READ_TIMEOUT_MILLIS, MAX_PAGE_BYTES, 2, BYTES);
 
     public static void main(String[] args) {
+        HostPartitioner partitioner = null;
+        File spoolDirectory = null;
+        int commonWordThreshold = 0;
+        int first = 0;
+        while (first + 1 < args.length && args[first].startsWith("--")) {
+            if (args[first].equals("--partition")) {
+                partitioner = HostPartitioner.parse(args[first + 1]);
+            } else if (args[first].equals("--spool")) {
+                spoolDirectory = new File(args[first + 1]);
+            } else if (args[first].equals("--common-words")) {
+                commonWordThreshold = Integer.parseInt(args[first + 1]);
+            } else {
+                System.err.printf("Error: Unknown option '%s'.%n", args[first]);
+                System.exit(1);
+            }
+            first += 2;
+        }
+        if ((partitioner == null) != (spoolDirectory == null)) {
+            System.err.println("Error: --partition and --spool must be given together.");
+            System.exit(1);
+        }
+
         // Basic usage information
-        if (args.length == 0) {
+        if (args.length == first) {
             System.err.println("Error: No URLs specified.");
             System.exit(1);
         }
 
         // We'll throw all of the args into a queue for processing.
         Queue<URL> remaining = new LinkedList<>();
-        for (String url : args) {
+        for (String url : Arrays.asList(args).subList(first, args.length)) {
             try {
-                remaining.add(new URL(url));
+                URL seed = new URL(url);
+                // Every partition gets the same seeds, but only crawls its own
+                if (partitioner == null || partitioner.owns(seed)) {
+                    remaining.add(seed);
+                }
             } catch (MalformedURLException e) {
                 // Throw this one out!
                 System.err.printf("Error: URL '%s' was malformed and will be ignored!%n", url);
             }
         }
 
-        // Create a parser from the attoparser library, and our handler for markup.
-        ISimpleMarkupParser parser = new SimpleMarkupParser(ParseConfiguration.htmlConfiguration());
         CrawlingMarkupHandler handler = new CrawlingMarkupHandler();
+        handler.setPartitioner(partitioner);
+        ((WebIndex) handler.getIndex()).setCommonWordThreshold(commonWordThreshold);
 
         // Try to start crawling, adding new URLS as we see them.
-        try {
+        String suffix = partitioner == null ? "" : "-" + partitioner.getPartition();
+        try (DocStore.Writer docs = new DocStore.Writer("docs" + suffix + ".db")) {
+            handler.setDocStore(docs);
+            LinkSpool spool = null;
+            if (partitioner != null) {
+                spool = new LinkSpool(spoolDirectory, partitioner);
+            }
+
+            long startNanos = System.nanoTime();
+            Index index = crawl(remaining, handler, spool);
+
+            index.save("index" + suffix + ".db");
+
+            double seconds = (System.nanoTime() - startNanos) / 1e9;
+            System.err.printf("Crawled %d pages (%d bytes) in %.1fs: %.1f pages/s, %.0f bytes/s%n",
+                    PAGES.sum(), BYTES.sum(), seconds, PAGES.sum() / seconds, BYTES.sum() / seconds);
+            StringBuilder metrics = new StringBuilder();
+            Metrics.render(metrics);
+            try (Writer out = new FileWriter("crawl-metrics" + suffix + ".txt")) {
+                out.write(metrics.toString());
+            }
+        } catch (Exception e) {
+            // Bad exception handling :(
+            System.err.println("Error: Index generation failed!");
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Crawls every page reachable from the remaining URLs and returns the resulting index. In a
+     * partitioned crawl, links are exchanged through the given spool until every partition is
+     * done; otherwise spool should be null.
+     */
+    public static Index crawl(Queue<URL> remaining, CrawlingMarkupHandler handler, LinkSpool spool)
+            throws Exception {
+        // Create a parser from the attoparser library
+        ISimpleMarkupParser parser = new SimpleMarkupParser(ParseConfiguration.htmlConfiguration());
+
+        while (true) {
             while (!remaining.isEmpty()) {
                 // Parse the next URL's page
-                //parser.parse(new InputStreamReader(remaining.poll().openStream()), handler);
-
                 URL nextURL = remaining.remove();
                 handler.setCurrentURL(nextURL);
-                try {
-                    parser.parse(new InputStreamReader(nextURL.openStream()), handler);
+                try (PageFetcher.PageReader page = FETCHER.fetch(nextURL)) {
+                    PAGES.increment();
+                    long opened = page.getFetchNanos();
+                    parser.parse(page, handler);
+                    FETCH_TIME.record(page.getFetchNanos());
+                    PARSE_TIME.record(handler.getParseNanos() - (page.getFetchNanos() - opened));
                 } catch (FileNotFoundException e) {
 
+                } catch (IOException e) {
+                    fetchFailed(nextURL, e);
+                } catch (ParseException e) {
+                    // The parser wraps errors reading the page, such as timeouts
+                    if (!(e.getCause() instanceof IOException)) {
+                        throw e;
+                    }
+                    fetchFailed(nextURL, e.getCause());
                 }
                 // Add any new URLs
                 remaining.addAll(handler.newURLs());
+                if (spool != null) {
+                    spool.send(handler.foreignLinks());
+                }
+            }
+            if (spool == null) {
+                break;
             }
 
-            handler.getIndex().save("index.db");
-        } catch (Exception e) {
-            // Bad exception handling :(
-            System.err.println("Error: Index generation failed!");
-            e.printStackTrace();
-            System.exit(1);
+            // Out of pages of our own, so hand off our links and pick up everyone else's
+            spool.flush();
+            for (Map.Entry<URL, Integer> link : spool.receive().entrySet()) {
+                handler.addLink(link.getKey(), link.getValue());
+            }
+            remaining.addAll(handler.newURLs());
+            if (remaining.isEmpty()) {
+                if (spool.isFinished()) {
+                    break;
+                }
+                Thread.sleep(POLL_MILLIS);
+            }
         }
+        return handler.getIndex();
+    }
+
+    // One slow or broken server shouldn't stop the crawl, so the page is skipped
+    private static void fetchFailed(URL url, Throwable e) {
+        FAILURES.increment();
+        System.err.printf("Error: Couldn't fetch '%s': %s%n", url, e);
     }
 }
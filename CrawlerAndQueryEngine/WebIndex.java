@@ -1,5 +1,8 @@
 package CrawlerAndQueryEngine;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.net.URL;
 import java.util.*;
 
 /**
@@ -15,12 +18,450 @@ public class WebIndex extends Index {
 
     private transient Page currentPage = null;
 
+    //Deleted pages are compacted away once they make up this fraction of allPages
+    private static final double COMPACTION_RATIO = 0.25;
+
     private Map<Page, String[]> allPages = new HashMap<>();
     private Map<String, Map<Page, int[]>> dictionary = new HashMap<>();
 
+    //The URL, connectedness, length and content hash of every indexed page, by ID, along with
+    //which page is at each URL, used to find the page to delete or replace
+    private DocTable table = new DocTable();
+    //Indexed pages by ID, rebuilt when the index is loaded
+    private transient Page[] pagesByID = new Page[1024];
+    //Bit i is set while the page with ID i is live; deleted pages stay in the
+    //postings until the next compaction and are masked out at query time
+    private BitSet liveDocs = new BitSet();
+    private int deletedCount = 0;
+    private int nextID = 1;
+    //URLs of near-duplicate pages that were not indexed, by the page they duplicate
+    private Map<Page, List<String>> aliases = new HashMap<>();
+    //Completions of partly typed words, built on demand and dropped whenever the index changes
+    private SuggestionIndex suggestions = null;
+
+    //Words on at least this many pages are common, and every pair of words containing a common
+    //one gets postings of its own, so phrases of common words don't have to intersect their huge
+    //posting lists. 0 turns this off.
+    private int commonWordThreshold = 0;
+    private Set<String> commonWords = new HashSet<>();
+    //Postings of word pairs, keyed by the two words separated by a space, giving the position
+    //of the first word
+    private Map<String, Map<Page, int[]>> bigrams = new HashMap<>();
+    //Set when pages were merged in without their pairs, until the pairs are rebuilt
+    private boolean bigramsStale = false;
+
     public void setCurrentPage(Page currentPage){
         this.currentPage = currentPage;
-        currentPage.setID(allPages.size() + 1);
+        currentPage.setID(nextID++);
+    }
+
+    //Returns the number of live pages in the index
+    public int size() {
+        return allPages.size() - deletedCount;
+    }
+
+    //Returns the number of distinct words in the index
+    public int termCount() {
+        return dictionary.size();
+    }
+
+    //Returns every distinct word in the index
+    public Set<String> terms() {
+        return Collections.unmodifiableSet(dictionary.keySet());
+    }
+
+    //Returns the number of live pages containing the given word
+    public int docFrequency(String word) {
+        Map<Page, int[]> pageMap = dictionary.get(word);
+        if(pageMap == null) {
+            return 0;
+        }
+        if(deletedCount == 0) {
+            return pageMap.size();
+        }
+        int count = 0;
+        for(Page page: pageMap.keySet()) {
+            if(isLive(page)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    //Returns the number of pages listed for a word, counting deleted pages that haven't been
+    //compacted away yet, which makes it a cheap upper bound on docFrequency
+    public int postingCount(String word) {
+        Map<Page, int[]> pageMap = dictionary.get(word);
+        return pageMap == null ? 0 : pageMap.size();
+    }
+
+    //Returns the positions of a word on a page, in order, or null if it isn't there
+    public int[] positions(String word, Page page) {
+        Map<Page, int[]> pageMap = dictionary.get(word);
+        return pageMap == null ? null : pageMap.get(page);
+    }
+
+    //Returns the live page indexed at the given URL, or null if there isn't one
+    public Page getPage(String url) {
+        Page page = pageAt(url);
+        return page != null && isLive(page) ? page : null;
+    }
+
+    //Returns the page last indexed at the given URL, whether or not it's live
+    private Page pageAt(String url) {
+        int id = table.find(url);
+        return id == 0 ? null : pagesByID[id];
+    }
+
+    //Makes an indexed page's URL and connectedness the table's to keep
+    private void addToTable(Page page, String url, int length, long contentHash) {
+        table.add(page.getID(), url, page.getConnectedness(), length, contentHash);
+        page.attach(table);
+        if(page.getID() >= pagesByID.length) {
+            pagesByID = Arrays.copyOf(pagesByID, Math.max(pagesByID.length * 2, page.getID() + 1));
+        }
+        pagesByID[page.getID()] = page;
+    }
+
+    //A 64-bit FNV-1a hash of a page's words, to tell whether its contents have changed
+    private static long contentHash(Collection<String> words) {
+        long hash = 0xcbf29ce484222325L;
+        for(String word: words) {
+            for(int i = 0; i < word.length(); i++) {
+                hash = (hash ^ word.charAt(i)) * 0x100000001b3L;
+            }
+            hash = (hash ^ ' ') * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    //Pages are stored without their URLs, so they're pointed back at the table after loading
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        pagesByID = new Page[Math.max(nextID, 1024)];
+        for(Page page: allPages.keySet()) {
+            page.attach(table);
+            pagesByID[page.getID()] = page;
+        }
+    }
+
+    //Returns the completions of partly typed words, weighted by how many pages contain them
+    public synchronized SuggestionIndex getSuggestions() {
+        if(suggestions == null) {
+            suggestions = new SuggestionIndex.Builder().addIndex(this).build();
+        }
+        return suggestions;
+    }
+
+    //Builds the suggestions before saving, so they are ready as soon as the index is loaded
+    @Override
+    public void save(String filename) throws IOException {
+        getSuggestions();
+        if(bigramsStale) {
+            rebuildBigrams();
+        }
+        super.save(filename);
+    }
+
+    /**
+     * Gives pairs of words postings of their own whenever one of the words is on at least
+     * threshold pages, or stops if threshold is 0. Pairs are indexed for pages already in the
+     * index as well as those added later.
+     */
+    public void setCommonWordThreshold(int threshold) {
+        commonWordThreshold = threshold;
+        rebuildBigrams();
+    }
+
+    //Returns the number of word pairs with postings of their own
+    public int bigramCount() {
+        return bigrams.size();
+    }
+
+    /**
+     * Counts what the index holds and estimates the memory each of its structures takes, listing
+     * the top words with the most pages. Walks every posting, so it takes about as long as
+     * saving the index.
+     */
+    public IndexStats stats(int top) {
+        long postings = 0;
+        long positions = 0;
+        long[] lengths = new long[32];
+        int longest = 0;
+        PriorityQueue<IndexStats.Term> heaviest = new PriorityQueue<>(top + 1,
+                Comparator.comparingInt((IndexStats.Term t) -> t.pages));
+        long wordBytes = 0;
+        long postingBytes = 0;
+        for(Map.Entry<String, Map<Page, int[]>> entry: dictionary.entrySet()) {
+            Map<Page, int[]> pageMap = entry.getValue();
+            long termPositions = 0;
+            for(int[] list: pageMap.values()) {
+                termPositions += list.length;
+                postingBytes += IndexStats.intArrayBytes(list.length);
+            }
+            postings += pageMap.size();
+            positions += termPositions;
+            postingBytes += IndexStats.hashMapBytes(pageMap.size());
+            wordBytes += IndexStats.stringBytes(entry.getKey());
+            int bucket = 31 - Integer.numberOfLeadingZeros(pageMap.size());
+            lengths[bucket]++;
+            longest = Math.max(longest, bucket + 1);
+            if(top > 0 && (heaviest.size() < top || pageMap.size() > heaviest.peek().pages)) {
+                heaviest.add(new IndexStats.Term(entry.getKey(), pageMap.size(), termPositions));
+                if(heaviest.size() > top) {
+                    heaviest.poll();
+                }
+            }
+        }
+        List<IndexStats.Term> heaviestTerms = new ArrayList<>(heaviest);
+        heaviestTerms.sort(Comparator.comparingInt((IndexStats.Term t) -> t.pages).reversed());
+
+        long textBytes = IndexStats.hashMapBytes(allPages.size());
+        for(String[] words: allPages.values()) {
+            textBytes += IndexStats.referenceArrayBytes(words.length);
+        }
+
+        long bigramPostings = 0;
+        long bigramBytes = IndexStats.hashMapBytes(bigrams.size())
+                + 16 + IndexStats.hashMapBytes(commonWords.size());
+        for(Map.Entry<String, Map<Page, int[]>> entry: bigrams.entrySet()) {
+            bigramPostings += entry.getValue().size();
+            bigramBytes += IndexStats.stringBytes(entry.getKey())
+                    + IndexStats.hashMapBytes(entry.getValue().size());
+            for(int[] list: entry.getValue().values()) {
+                bigramBytes += IndexStats.intArrayBytes(list.length);
+            }
+        }
+
+        long aliasBytes = IndexStats.hashMapBytes(aliases.size());
+        for(List<String> urls: aliases.values()) {
+            //An ArrayList and its array
+            aliasBytes += 24 + IndexStats.referenceArrayBytes(urls.size());
+            for(String url: urls) {
+                aliasBytes += IndexStats.stringBytes(url);
+            }
+        }
+
+        Map<String, Long> heap = new LinkedHashMap<>();
+        heap.put("dictionary", IndexStats.hashMapBytes(dictionary.size()) + wordBytes);
+        heap.put("postings", postingBytes);
+        heap.put("stored text", textBytes);
+        //Each Page object, the array finding them by ID and the live page bits
+        heap.put("pages", 32L * allPages.size() + IndexStats.referenceArrayBytes(pagesByID.length)
+                + IndexStats.align(16 + liveDocs.size() / 8));
+        heap.put("doc table", table.heapBytes());
+        heap.put("word pairs", bigramBytes);
+        heap.put("aliases", aliasBytes);
+        heap.put("suggestions", suggestions == null ? 0 : suggestions.heapBytes());
+        Map<String, Long> offHeap = new LinkedHashMap<>();
+        offHeap.put("doc table", table.offHeapBytes());
+
+        return new IndexStats(size(), deletedCount, dictionary.size(), postings, positions,
+                bigrams.size(), bigramPostings, Arrays.copyOf(lengths, longest), heaviestTerms,
+                heap, offHeap);
+    }
+
+    private void rebuildBigrams() {
+        commonWords = new HashSet<>();
+        bigrams = new HashMap<>();
+        bigramsStale = false;
+        if(commonWordThreshold <= 0) {
+            return;
+        }
+        for(Map.Entry<String, Map<Page, int[]>> entry: dictionary.entrySet()) {
+            if(entry.getValue().size() >= commonWordThreshold) {
+                commonWords.add(entry.getKey());
+            }
+        }
+        for(Map.Entry<Page, String[]> entry: allPages.entrySet()) {
+            String[] words = entry.getValue();
+            for(int i = 0; i + 1 < words.length; i++) {
+                if(commonWords.contains(words[i]) || commonWords.contains(words[i + 1])) {
+                    addBigram(words, i, entry.getKey());
+                }
+            }
+        }
+    }
+
+    private static String bigram(String first, String second) {
+        return first + " " + second;
+    }
+
+    //Adds the pair of words at position i of a page's words to the pair postings
+    private void addBigram(String[] words, int i, Page page) {
+        Map<Page, int[]> pageMap = bigrams.computeIfAbsent(bigram(words[i], words[i + 1]),
+                k -> new HashMap<>());
+        int[] positions = pageMap.get(page);
+        if(positions == null) {
+            pageMap.put(page, new int[]{i});
+        } else if(positions[positions.length - 1] != i) {
+            //Pairs are always added in order, so a repeat can only be the last one
+            positions = Arrays.copyOf(positions, positions.length + 1);
+            positions[positions.length - 1] = i;
+            pageMap.put(page, positions);
+        }
+    }
+
+    /**
+     * Makes a word common now that it's on enough pages, adding the pairs it makes on the pages
+     * indexed so far. Pairs with a word that was already common were added back then, and pairs
+     * with a word not yet added to the current page will be added with that word.
+     */
+    private void makeCommon(String word) {
+        commonWords.add(word);
+        for(Map.Entry<Page, int[]> entry: dictionary.get(word).entrySet()) {
+            String[] words = allPages.get(entry.getKey());
+            for(int p: entry.getValue()) {
+                if(p > 0 && (word.equals(words[p - 1]) || !commonWords.contains(words[p - 1]))) {
+                    addBigram(words, p - 1, entry.getKey());
+                }
+                if(p + 1 < words.length && words[p + 1] != null
+                        && (word.equals(words[p + 1]) || !commonWords.contains(words[p + 1]))) {
+                    addBigram(words, p, entry.getKey());
+                }
+            }
+        }
+    }
+
+    public boolean isLive(Page page) {
+        return liveDocs.get(page.getID());
+    }
+
+    //Removes the page at the given URL from search results
+    //Returns false if no live page is indexed at that URL
+    public boolean deletePage(URL url) {
+        Page page = pageAt(url.toString());
+        table.remove(url.toString());
+        if(page == null || !isLive(page)) {
+            return false;
+        }
+        markDeleted(page);
+        return true;
+    }
+
+    private void markDeleted(Page page) {
+        suggestions = null;
+        liveDocs.clear(page.getID());
+        deletedCount++;
+        if(deletedCount > allPages.size() * COMPACTION_RATIO) {
+            compact();
+        }
+    }
+
+    //Replaces the contents of the page at the given URL with the given phrase
+    //The page keeps its connectedness but gets a new ID, unless its words haven't changed at all
+    public void updatePage(URL url, Queue<String> phrase) {
+        Page page = new Page(url);
+        Page old = getPage(url.toString());
+        if(old != null && table.length(old.getID()) == phrase.size()
+                && table.contentHash(old.getID()) == contentHash(phrase)) {
+            return;
+        }
+        if(old != null) {
+            page.increment(old.getConnectedness() - 1);
+            deletePage(url);
+        }
+        setCurrentPage(page);
+        addPhrase(phrase);
+    }
+
+    //Records that the page at the given URL is a near-duplicate of an indexed page
+    public void addAlias(Page page, URL alias) {
+        aliases.computeIfAbsent(page, p -> new ArrayList<>(1)).add(alias.toString());
+    }
+
+    //Returns the URLs of every near-duplicate of the given page
+    public List<String> getAliases(Page page) {
+        List<String> output = aliases.get(page);
+        return output == null ? Collections.emptyList() : output;
+    }
+
+    /**
+     * Adds every live page of another index to this one, such as a shard from a partitioned crawl.
+     * If both indexes hold the same URL, the other index's copy replaces this one's. The other
+     * index can't be used afterwards, since its pages are given new IDs.
+     */
+    public void merge(WebIndex other) {
+        suggestions = null;
+        other.compact();
+
+        //The other index's maps are only iterated from here on, never searched,
+        //because renumbering its pages changes their hash codes
+        for(Map.Entry<Page, String[]> entry: other.allPages.entrySet()) {
+            Page page = entry.getKey();
+            int length = other.table.length(page.getID());
+            long contentHash = other.table.contentHash(page.getID());
+            page.setID(nextID++);
+            String url = page.getURL().toString();
+            Page old = pageAt(url);
+            if(old != null && isLive(old)) {
+                markDeleted(old);
+            }
+            addToTable(page, url, length, contentHash);
+            allPages.put(page, entry.getValue());
+            liveDocs.set(page.getID());
+        }
+        for(Map.Entry<String, Map<Page, int[]>> entry: other.dictionary.entrySet()) {
+            Map<Page, int[]> pageMap = dictionary.get(entry.getKey());
+            if(pageMap == null) {
+                pageMap = new HashMap<>();
+                dictionary.put(entry.getKey(), pageMap);
+            }
+            for(Map.Entry<Page, int[]> posting: entry.getValue().entrySet()) {
+                pageMap.put(posting.getKey(), posting.getValue());
+            }
+        }
+        for(Map.Entry<Page, List<String>> entry: other.aliases.entrySet()) {
+            aliases.put(entry.getKey(), entry.getValue());
+        }
+        //The pairs are rebuilt once, on saving, rather than after every shard
+        if(commonWordThreshold == 0) {
+            commonWordThreshold = other.commonWordThreshold;
+        }
+        bigramsStale = commonWordThreshold > 0;
+    }
+
+    //Physically removes the postings and text of every deleted page
+    public void compact() {
+        if(deletedCount == 0) {
+            return;
+        }
+        Iterator<Map.Entry<Page, String[]>> pageIt = allPages.entrySet().iterator();
+        while(pageIt.hasNext()) {
+            Map.Entry<Page, String[]> entry = pageIt.next();
+            Page page = entry.getKey();
+            if(isLive(page)) {
+                continue;
+            }
+            for(String word: entry.getValue()) {
+                Map<Page, int[]> pageMap = dictionary.get(word);
+                if(pageMap != null) {
+                    pageMap.remove(page);
+                    if(pageMap.isEmpty()) {
+                        dictionary.remove(word);
+                    }
+                }
+            }
+            String[] words = entry.getValue();
+            for(int i = 0; i + 1 < words.length && !bigrams.isEmpty(); i++) {
+                if(!commonWords.contains(words[i]) && !commonWords.contains(words[i + 1])) {
+                    continue;
+                }
+                String pair = bigram(words[i], words[i + 1]);
+                Map<Page, int[]> pageMap = bigrams.get(pair);
+                if(pageMap != null) {
+                    pageMap.remove(page);
+                    if(pageMap.isEmpty()) {
+                        bigrams.remove(pair);
+                    }
+                }
+            }
+            aliases.remove(page);
+            pagesByID[page.getID()] = null;
+            pageIt.remove();
+        }
+        table.compact(liveDocs);
+        deletedCount = 0;
     }
 
     //Search the given word or phrase query for associated set of pages
@@ -66,61 +507,84 @@ public class WebIndex extends Index {
         if(phrase.isEmpty()) {
             return new HashSet<>();
         }
-
-        Iterator<String> phraseIt = phrase.iterator();
-
         if(phrase.size() == 1){
-            return searchWord(phraseIt.next());
-        }
-
-        Map<Page, int[]> pageMap = dictionary.get(phraseIt.next());
-        if(pageMap == null){
-            return new HashSet<>();
+            return searchWord(phrase.iterator().next());
         }
+        return phrasePages(new ArrayList<>(phrase), null);
+    }
 
-        Set<Page> pageSet = new HashSet<>(pageMap.keySet());
-
-        //Find the intersection of the pages associated with each word in the phrase
-        while(phraseIt.hasNext()){
-            Map<Page, int[]> nextMap = dictionary.get(phraseIt.next());
-            if(nextMap == null){
+    /**
+     * Returns the live pages containing a phrase of at least two words, only looking at the pages
+     * in within if it isn't null.
+     *
+     * The search starts from whichever of the phrase's words, or of its word pairs with postings
+     * of their own, is on the fewest pages, and checks the rest of the phrase against each of
+     * those pages' words. A phrase of common words is nearly always found from a pair that's far
+     * rarer than either of its words.
+     */
+    private Set<Page> phrasePages(List<String> phrase, Set<Page> within) {
+        Map<Page, int[]> anchor = null;
+        int offset = 0;
+        for(int i = 0; i < phrase.size(); i++) {
+            Map<Page, int[]> pageMap = dictionary.get(phrase.get(i));
+            if(pageMap == null) {
                 return new HashSet<>();
             }
-            pageSet.retainAll(nextMap.keySet());
-            if(pageSet.size() == 0){
+            if(anchor == null || pageMap.size() < anchor.size()) {
+                anchor = pageMap;
+                offset = i;
+            }
+        }
+        for(int i = 0; i + 1 < phrase.size() && !bigramsStale; i++) {
+            if(!commonWords.contains(phrase.get(i)) && !commonWords.contains(phrase.get(i + 1))) {
+                continue;
+            }
+            //Every pair with a common word is indexed, so a missing pair is on no page at all
+            Map<Page, int[]> pageMap = bigrams.get(bigram(phrase.get(i), phrase.get(i + 1)));
+            if(pageMap == null) {
                 return new HashSet<>();
             }
+            if(pageMap.size() < anchor.size()) {
+                anchor = pageMap;
+                offset = i;
+            }
         }
 
-
-
-        pageSet.removeIf((Page p) -> !hasPhrase(allPages.get(p), pageMap.get(p), phrase));
-
-        return pageSet;
+        String[] words = phrase.toArray(new String[0]);
+        Set<Page> output = new HashSet<>();
+        //Walk whichever is smaller, the pages given or the pages of the anchor
+        Collection<Page> candidates = within != null && within.size() < anchor.size() ? within
+                : anchor.keySet();
+        int count = 0;
+        for(Page page: candidates) {
+            QueryDeadline.check(++count);
+            int[] positions = anchor.get(page);
+            if(positions == null || (within != null && candidates != within && !within.contains(page))
+                    || (deletedCount > 0 && !isLive(page))) {
+                continue;
+            }
+            if(hasPhrase(allPages.get(page), positions, offset, words)) {
+                output.add(page);
+            }
+        }
+        return output;
     }
 
-    //Check whether a given set of nodes has at least one node representing the phrase
-    private boolean hasPhrase(String[] wordList, int[] indexList, Collection<String> phrase) {
-        main: for(int index: indexList) {
-            if(index + phrase.size() > wordList.length) {
-                return false;
+    //Checks whether a page's words hold the phrase, given the positions on the page of the
+    //phrase's word, or pair of words, at offset
+    private boolean hasPhrase(String[] wordList, int[] positions, int offset, String[] phrase) {
+        next: for(int position: positions) {
+            int start = position - offset;
+            if(start < 0 || start + phrase.length > wordList.length) {
+                continue;
             }
-
-            index++;
-            Iterator<String> it = phrase.iterator();
-            it.next();
-
-            while(it.hasNext()){
-                String word = it.next();
-                if(!wordList[index].equals(word)){
-                    //This node doesn't match the given phrase
-                    continue main;
+            for(int i = 0; i < phrase.length; i++) {
+                if(!wordList[start + i].equals(phrase[i])) {
+                    continue next;
                 }
-                index++;
             }
             return true;
         }
-        //No nodes match the given phrase
         return false;
     }
 
@@ -137,16 +601,37 @@ public class WebIndex extends Index {
         return copySet(dictionary.get(word).keySet());
     }
 
+    //Returns the live pages containing the given word, which can't be modified
+    //Unlike searchWord, the pages aren't copied unless some have been deleted
+    public Set<Page> postings(String word) {
+        Map<Page, int[]> pageMap = dictionary.get(word);
+        if(pageMap == null) {
+            return Collections.emptySet();
+        }
+        if(deletedCount == 0) {
+            return Collections.unmodifiableSet(pageMap.keySet());
+        }
+        return Collections.unmodifiableSet(copySet(pageMap.keySet()));
+    }
+
     public Set<Page> searchNotWord(String word) {
         Set<Page> output = copySet(allPages.keySet());
         output.removeAll(searchWord(word));
         return output;
     }
 
-    //Provides a copy of a given set
+    //Provides a copy of a given set without any deleted pages
     //Useful because sets are passed by reference
     private Set<Page> copySet(Set<Page> pageSet) {
-        return new HashSet<>(pageSet);
+        Set<Page> output = new HashSet<>(Math.max((int) (pageSet.size() / .75f) + 1, 16));
+        int count = 0;
+        for(Page page: pageSet) {
+            QueryDeadline.check(++count);
+            if(deletedCount == 0 || isLive(page)) {
+                output.add(page);
+            }
+        }
+        return output;
     }
 
     //Inserts the given phrase into dictionary
@@ -155,13 +640,33 @@ public class WebIndex extends Index {
             return;
         }
 
+        //Indexing a URL again replaces its old contents
+        String url = currentPage.getURL().toString();
+        Page old = pageAt(url);
+        if(old != null && old != currentPage && isLive(old)) {
+            markDeleted(old);
+        }
+
+        suggestions = null;
         String[] phraseList = new String[phrase.size()];
         allPages.put(currentPage, phraseList);
+        liveDocs.set(currentPage.getID());
         for(int i = 0; i < phraseList.length; i++){
             String word = getReference(phrase.remove());
             phraseList[i] = word;
             addToDictionary(word, i);
+            if(commonWordThreshold > 0 && !bigramsStale) {
+                if(!commonWords.contains(word)
+                        && dictionary.get(word).size() >= commonWordThreshold) {
+                    makeCommon(word);
+                }
+                if(i > 0 && (commonWords.contains(phraseList[i - 1])
+                        || commonWords.contains(word))) {
+                    addBigram(phraseList, i - 1, currentPage);
+                }
+            }
         }
+        addToTable(currentPage, url, phraseList.length, contentHash(Arrays.asList(phraseList)));
     }
 
     private void addToDictionary(String word, int index) {
@@ -217,38 +722,13 @@ public class WebIndex extends Index {
             return new HashSet<>();
         }
 
-        Iterator<String> phraseIt = phrase.iterator();
-
         if(phrase.size() == 1){
-            Set<Page> temp = searchWord(phraseIt.next());
+            Set<Page> temp = searchWord(phrase.iterator().next());
             temp.retainAll(intersection);
             return temp;
         }
 
-        Map<Page, int[]> pageMap = dictionary.get(phraseIt.next());
-        if(pageMap == null){
-            return new HashSet<>();
-        }
-
-        intersection.retainAll(pageMap.keySet());
-        if(intersection.isEmpty()){
-            return new HashSet<>();
-        }
-
-        while(phraseIt.hasNext()){
-            Map<Page, int[]> nextMap = dictionary.get(phraseIt.next());
-            if(nextMap == null){
-                return new HashSet<>();
-            }
-            intersection.retainAll(nextMap.keySet());
-            if(intersection.isEmpty()){
-                return new HashSet<>();
-            }
-        }
-
-        intersection.removeIf((Page p) -> !hasPhrase(allPages.get(p), pageMap.get(p), phrase));
-
-        return intersection;
+        return phrasePages(new ArrayList<>(phrase), intersection);
     }
 
     public Set<Page> searchPhraseRemove(String phrase, Set<Page> remove) {
@@ -260,39 +740,14 @@ public class WebIndex extends Index {
             return new HashSet<>();
         }
 
-        Iterator<String> phraseIt = phrase.iterator();
-
         if(phrase.size() == 1){
-            Set<Page> temp = searchWord(phraseIt.next());
+            Set<Page> temp = searchWord(phrase.iterator().next());
             temp.removeAll(remove);
             return temp;
         }
 
-        Map<Page, int[]> pageMap = dictionary.get(phraseIt.next());
-        if(pageMap == null){
-            return new HashSet<>();
-        }
-
-        Set<Page> pageSet = new HashSet<>(pageMap.keySet());
-
+        Set<Page> pageSet = phrasePages(new ArrayList<>(phrase), null);
         pageSet.removeAll(remove);
-        if(pageSet.isEmpty()){
-            return new HashSet<>();
-        }
-
-        while(phraseIt.hasNext()){
-            Map<Page, int[]> nextMap = dictionary.get(phraseIt.next());
-            if(nextMap == null){
-                return new HashSet<>();
-            }
-            pageSet.retainAll(nextMap.keySet());
-            if(pageSet.isEmpty()){
-                return new HashSet<>();
-            }
-        }
-
-        pageSet.removeIf((Page p) -> !hasPhrase(allPages.get(p), pageMap.get(p), phrase));
-
         return pageSet;
     }
 }
@@ -1,11 +1,25 @@
 package CrawlerAndQueryEngine;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * A query engine which holds an underlying web index and can answer textual queries with a
  * collection of relevant pages.
  */
 public class WebQueryEngine {
+    private static final LatencyHistogram PARSE_TIME = Metrics.histogram(
+            "tsoogle_query_stage_seconds{stage=\"parse\"}", "Time spent in each stage of a query");
+    private static final LatencyHistogram EVALUATE_TIME = Metrics.histogram(
+            "tsoogle_query_stage_seconds{stage=\"evaluate\"}", "Time spent in each stage of a query");
+
+    //Queries reading at least this many postings are evaluated in parallel
+    private static final long PARALLEL_COST = 200000;
+    //Parts of a parallel query reading fewer postings than this aren't worth a task of their own
+    private static final long MIN_TASK_COST = 20000;
+    //Shared by every engine, so parallel queries together use each core once
+    private static final ForkJoinPool POOL = new ForkJoinPool(
+            Runtime.getRuntime().availableProcessors());
+
     //The index that the engine is based on
     private WebIndex index;
 
@@ -27,22 +41,277 @@ public class WebQueryEngine {
     /**
      * Returns a Collection of URLs (as Strings) of web pages satisfying the query expression.
      *
+     * Queries whose words appear on many pages have their independent parts evaluated in parallel;
+     * smaller queries are answered on the calling thread, where they're quicker.
+     *
      * @param query A query expression.
      * @return A collection of web pages satisfying the query.
      */
     //Parses a given query and returns the associated Collection of Pages
     public Set<Page> query(String query) {
-        // TODO: Implement this!
-        //Tokenize query
-        List<String> queries = tokenize(query);
-        if(queries.size() == 0){
+        long start = System.nanoTime();
+        QueryNode root = parse(query);
+        PARSE_TIME.recordSince(start);
+        if(root == null) {
             return new HashSet<>();
         }
-        if(queries.size() == 1){
-            return index.search(queries.get(0));
+        start = System.nanoTime();
+        Map<String, Long> costs = new HashMap<>();
+        Set<Page> output;
+        if(root instanceof QueryNode.Term) {
+            //The caller gets a set of its own, rather than the index's
+            output = root.key().isEmpty() ? new HashSet<>() : index.search(root.key());
+        } else if(cost(root, costs) < PARALLEL_COST) {
+            output = evaluate(root, new HashMap<>());
+        } else {
+            output = evaluateInParallel(root, costs);
+        }
+        EVALUATE_TIME.recordSince(start);
+        return output;
+    }
+
+    /**
+     * @return the index this engine answers queries from.
+     */
+    public WebIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * Like query(String), but gives up with a QueryTimeoutException if answering the query takes
+     * longer than timeoutMillis.
+     */
+    public Set<Page> query(String query, long timeoutMillis) {
+        QueryDeadline deadline = QueryDeadline.start(timeoutMillis);
+        try {
+            return query(query);
+        } finally {
+            deadline.end();
+        }
+    }
+
+    /**
+     * Answers a query like query(String), but returns how it was parsed and evaluated instead of
+     * the pages. Nodes are always evaluated one at a time on this thread, so each can be timed.
+     */
+    public QueryExplanation explain(String query) {
+        long start = System.nanoTime();
+        List<String> tokens = tokenize(query);
+        List<String> postfix = tokens.isEmpty() ? Collections.emptyList() : postFix(tokens);
+        QueryNode root = parse(query);
+        long parseNanos = System.nanoTime() - start;
+        if(root == null) {
+            return new QueryExplanation(query, tokens, postfix, parseNanos, false, null);
+        }
+        Map<String, Long> costs = new HashMap<>();
+        long cost = cost(root, costs);
+        boolean parallel = !(root instanceof QueryNode.Term) && cost >= PARALLEL_COST;
+        QueryExplanation.Step step = explain(null, root, new HashMap<>(), costs, new int[1]);
+        return new QueryExplanation(query, tokens, postfix, parseNanos, parallel, step);
+    }
+
+    /**
+     * Like explain(String), but gives up with a QueryTimeoutException if evaluating the query
+     * takes longer than timeoutMillis.
+     */
+    public QueryExplanation explain(String query, long timeoutMillis) {
+        QueryDeadline deadline = QueryDeadline.start(timeoutMillis);
+        try {
+            return explain(query);
+        } finally {
+            deadline.end();
+        }
+    }
+
+    //Evaluates a node like evaluate(), recording what each node below it expected and took
+    private QueryExplanation.Step explain(String role, QueryNode node,
+            Map<String, Set<Page>> results, Map<String, Long> costs, int[] order) {
+        long start = System.nanoTime();
+        Set<Page> known = results.get(node.key());
+        if(known != null) {
+            return new QueryExplanation.Step(role, node, 0, estimate(node), known.size(), 0, 0, 0,
+                    true, Collections.emptyList());
+        }
+        QueryDeadline.check();
+        //Which of an and's dependencies are subtracted rather than intersected
+        Set<String> excluded = new HashSet<>();
+        List<QueryNode> checked = Collections.emptyList();
+        if(node instanceof QueryNode.And) {
+            for(QueryNode operand: ((QueryNode.And) node).getOperands()) {
+                if(operand instanceof QueryNode.Not) {
+                    excluded.add(((QueryNode.Not) operand).getOperand().key());
+                }
+            }
+            checked = ((QueryNode.And) node).checkedPhrases();
+        }
+        List<QueryExplanation.Step> children = new ArrayList<>();
+        long postings = costs.get(node.key());
+        for(QueryNode dependency: node.dependencies()) {
+            String childRole = node instanceof QueryNode.Or ? "union"
+                    : node instanceof QueryNode.Not ? "complement"
+                    : excluded.contains(dependency.key()) ? "subtract" : "intersect";
+            children.add(explain(childRole, dependency, results, costs, order));
+            postings -= costs.get(dependency.key());
+        }
+        long selfStart = System.nanoTime();
+        Set<Page> output = node.evaluate(index, results);
+        long end = System.nanoTime();
+        results.put(node.key(), output);
+
+        //Show an and's operands in the order it uses them: smallest first, then the phrases
+        //checked on what's left, then what's taken away
+        for(QueryNode phrase: checked) {
+            children.add(new QueryExplanation.Step("check", phrase, 0, estimate(phrase), -1,
+                    costs.get(phrase.key()), 0, 0, false, Collections.emptyList()));
+        }
+        children.sort(Comparator.comparingInt((QueryExplanation.Step s) -> rolePosition(s.role))
+                .thenComparingInt(s -> s.role.equals("intersect") ? s.actual : 0));
+        return new QueryExplanation.Step(role, node, ++order[0], estimate(node), output.size(),
+                postings, end - selfStart, end - start, false, children);
+    }
+
+    private static int rolePosition(String role) {
+        return role.equals("check") ? 1 : role.equals("subtract") ? 2 : 0;
+    }
+
+    /**
+     * Returns an estimate of the number of pages matching a node, taking each word to appear on
+     * pages independently of the others.
+     */
+    private long estimate(QueryNode node) {
+        double size = Math.max(index.size(), 1);
+        return Math.round(fraction(node, size) * size);
+    }
+
+    //The estimated fraction of pages matching a node
+    private double fraction(QueryNode node, double size) {
+        if(node instanceof QueryNode.Term) {
+            //A phrase can't match more pages than its rarest word
+            long rarest = Long.MAX_VALUE;
+            for(String word: node.key().replace("\"", "").split(" ")) {
+                rarest = Math.min(rarest, word.isEmpty() ? 0 : index.docFrequency(word));
+            }
+            return Math.min(1, rarest / size);
+        } else if(node instanceof QueryNode.Not) {
+            return 1 - fraction(((QueryNode.Not) node).getOperand(), size);
+        } else if(node instanceof QueryNode.And) {
+            double fraction = 1;
+            for(QueryNode operand: ((QueryNode.And) node).getOperands()) {
+                fraction *= fraction(operand, size);
+            }
+            return fraction;
+        }
+        double missing = 1;
+        for(QueryNode operand: ((QueryNode.Or) node).getOperands()) {
+            missing *= 1 - fraction(operand, size);
+        }
+        return 1 - missing;
+    }
+
+    /**
+     * Parses a query into a tree, or returns null if it has no words.
+     */
+    public QueryNode parse(String query) {
+        List<String> tokens = tokenize(query);
+        if(tokens.isEmpty()) {
+            return null;
+        }
+        Deque<QueryNode> operands = new ArrayDeque<>();
+        for(String token: postFix(tokens)) {
+            if(token.equals("&") || token.equals("|")) {
+                if(operands.size() < 2) {
+                    //A dangling operator, such as in "a &", applies to nothing
+                    continue;
+                }
+                QueryNode rhs = operands.pop();
+                QueryNode lhs = operands.pop();
+                operands.push(token.equals("&") ? QueryNode.And.of(lhs, rhs)
+                        : QueryNode.Or.of(lhs, rhs));
+            } else if(token.charAt(0) == '!') {
+                operands.push(new QueryNode.Not(new QueryNode.Term(token.substring(1))));
+            } else {
+                operands.push(new QueryNode.Term(token));
+            }
+        }
+        return operands.isEmpty() ? null : operands.pop();
+    }
+
+    /**
+     * Answers many queries at once, giving the pages matching each query in the same order.
+     *
+     * Words, phrases and subexpressions that appear in several queries, or several times in one,
+     * are only evaluated once. Everything with the same depth in the query trees is evaluated in
+     * parallel, deepest first, so each level can use the results of the one below. The returned
+     * sets may be shared between queries, so they can't be modified.
+     */
+    public List<Set<Page>> queryBatch(List<String> queries) {
+        //Parse each query, and find every distinct node of every query
+        List<QueryNode> roots = new ArrayList<>(queries.size());
+        Map<String, QueryNode> nodes = new HashMap<>();
+        Map<String, Integer> depths = new HashMap<>();
+        //Number of nodes still to be evaluated that need each node's result
+        Map<String, Integer> waiting = new HashMap<>();
+        for(String query: queries) {
+            QueryNode root = parse(query);
+            roots.add(root);
+            if(root != null) {
+                collect(root, nodes, depths, waiting);
+            }
+        }
+        Set<String> rootKeys = new HashSet<>();
+        for(QueryNode root: roots) {
+            if(root != null) {
+                rootKeys.add(root.key());
+            }
+        }
+
+        List<List<QueryNode>> levels = new ArrayList<>();
+        for(QueryNode node: nodes.values()) {
+            int depth = depths.get(node.key());
+            while(levels.size() <= depth) {
+                levels.add(new ArrayList<>());
+            }
+            levels.get(depth).add(node);
+        }
+
+        Map<String, Set<Page>> results = new ConcurrentHashMap<>();
+        for(List<QueryNode> level: levels) {
+            level.parallelStream().forEach(node ->
+                    results.put(node.key(), node.evaluate(index, results)));
+            //Let go of results nothing else needs
+            for(QueryNode node: level) {
+                for(QueryNode dependency: node.dependencies()) {
+                    String key = dependency.key();
+                    if(waiting.merge(key, -1, Integer::sum) == 0 && !rootKeys.contains(key)) {
+                        results.remove(key);
+                    }
+                }
+            }
+        }
+
+        List<Set<Page>> output = new ArrayList<>(roots.size());
+        for(QueryNode root: roots) {
+            output.add(root == null ? Collections.emptySet()
+                    : Collections.unmodifiableSet(results.get(root.key())));
         }
-        //Use Shunting-yard to parse tokenized query
-        return evaluatePostfix(postFix(queries));
+        return output;
+    }
+
+    //Records a node and everything below it, returning the node's depth
+    private int collect(QueryNode node, Map<String, QueryNode> nodes,
+            Map<String, Integer> depths, Map<String, Integer> waiting) {
+        Integer known = depths.get(node.key());
+        if(known != null) {
+            return known;
+        }
+        int depth = 0;
+        for(QueryNode dependency: node.dependencies()) {
+            depth = Math.max(depth, collect(dependency, nodes, depths, waiting) + 1);
+            waiting.merge(dependency.key(), 1, Integer::sum);
+        }
+        nodes.put(node.key(), node);
+        depths.put(node.key(), depth);
+        return depth;
     }
 
     //Tokenize query into operators, operands, and parentheses
@@ -184,130 +453,133 @@ public class WebQueryEngine {
     }
 
 
-    //Evaluate postfix tokens after Shunting-yard
-    private Set<Page> evaluatePostfix(List<String> tokens) {
-        Stack<String> operandStack = new Stack<>();
-        Set<Page> output = null;
-        for(String element: tokens) {
-            if(element.equals("&")){
-                if(output == null){
-                    output = and(operandStack.pop(), operandStack.pop());
-                } else {
-                    and(operandStack.pop(), output);
-                }
-            } else if (element.equals("|")){
-                if(output == null) {
-                    output = or(operandStack.pop(), operandStack.pop());
-                } else {
-                    or(operandStack.pop(), output);
-                }
-            } else {
-                operandStack.push(element);
+    /**
+     * Returns a rough measure of the work of evaluating a node: the number of postings it reads,
+     * counting every page for a not. Records the cost of each node below it too.
+     */
+    private long cost(QueryNode node, Map<String, Long> costs) {
+        Long known = costs.get(node.key());
+        if(known != null) {
+            return known;
+        }
+        long cost = 0;
+        if(node instanceof QueryNode.Term) {
+            for(String word: node.key().replace("\"", "").split(" ")) {
+                cost += word.isEmpty() ? 0 : index.postingCount(word);
+            }
+        } else if(node instanceof QueryNode.Not) {
+            cost = index.size();
+        } else if(node instanceof QueryNode.And) {
+            for(QueryNode phrase: ((QueryNode.And) node).checkedPhrases()) {
+                cost += cost(phrase, costs);
             }
         }
-        if(output == null){
-            return new HashSet<>();
+        for(QueryNode dependency: node.dependencies()) {
+            cost += cost(dependency, costs);
         }
-        return output;
+        costs.put(node.key(), cost);
+        return cost;
     }
 
-    private Set<Page> and(String lhs, String rhs) {
-        if(lhs.charAt(0) == '!') {
-            Set<Page> output = index.search(rhs);
-            output.removeAll(index.search(lhs.substring(1)));
-            return output;
-        }
-
-        if(rhs.charAt(0) == '!') {
-            Set<Page> output = index.search(lhs);
-            output.removeAll(index.search(rhs.substring(1)));
-            System.out.println("here");
-            return output;
-        }
-
-        if(lhs.charAt(0) != '\"') {
-            Set<Page> output = index.searchWord(lhs);
-            if(rhs.charAt(0) != '\"') {
-                output.retainAll(index.searchWord(rhs));
-            } else {
-                output = index.searchPhraseAdd(rhs, output);
-            }
-            return output;
+    //Evaluates a node and everything below it on this thread, reusing results already known
+    private Set<Page> evaluate(QueryNode node, Map<String, Set<Page>> results) {
+        Set<Page> known = results.get(node.key());
+        if(known != null) {
+            return known;
         }
-        if(rhs.charAt(0) != '\"') {
-            Set<Page> output = index.searchWord(rhs);
-            if(lhs.charAt(0) != '\"') {
-                output.retainAll(index.searchWord(lhs));
-            } else {
-                output = index.searchPhraseAdd(lhs, output);
-            }
-            return output;
+        QueryDeadline.check();
+        for(QueryNode dependency: node.dependencies()) {
+            evaluate(dependency, results);
         }
-
-        Set<Page> output = index.search(lhs);
-        output = index.searchPhraseAdd(rhs, output);
-
+        Set<Page> output = node.evaluate(index, results);
+        results.put(node.key(), output);
         return output;
     }
 
-    private void and(String token, Set<Page> pageSet) {
-        if(token.charAt(0) == '!') {
-            pageSet.removeAll(index.searchWord(token.substring(1)));
-        } else if (token.charAt(0) == '"') {
-            index.searchPhraseAdd(token, pageSet);
-        } else {
-            pageSet.retainAll(index.searchWord(token));
+    /**
+     * Evaluates a node on the fork-join pool, with each costly part of the tree as its own task.
+     * The calling thread's deadline applies to every task, and interrupting the calling thread
+     * cancels them all.
+     */
+    private Set<Page> evaluateInParallel(QueryNode root, Map<String, Long> costs) {
+        QueryDeadline deadline = QueryDeadline.current();
+        EvaluateTask task = new EvaluateTask(root, costs, deadline,
+                new ConcurrentHashMap<>(), new ConcurrentHashMap<>());
+        ForkJoinTask<Set<Page>> running = POOL.submit(task);
+        try {
+            return running.get();
+        } catch(InterruptedException e) {
+            if(deadline != null) {
+                deadline.cancel();
+            }
+            running.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new QueryTimeoutException("Query was cancelled");
+        } catch(ExecutionException e) {
+            if(e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
         }
     }
 
-    private Set<Page> or(String lhs, String rhs) {
-        if(lhs.charAt(0) == '!' && rhs.charAt(0) == '!') {
-            Set<Page> output = index.search(lhs.substring(1));
-            output.retainAll(index.search(rhs.substring(1)));
-            return index.inverse(output);
-        }
+    /**
+     * Evaluates one node, forking a task for each of its costly dependencies and evaluating the
+     * cheap ones itself. Nodes that appear more than once in the tree get a single task.
+     */
+    private class EvaluateTask extends RecursiveTask<Set<Page>> {
+        private static final long serialVersionUID = 1L;
 
-        if(lhs.charAt(0) == '!') {
-            Set<Page> output = index.search(lhs.substring(1));
-            output.removeAll(index.search(rhs));
-            return index.inverse(output);
-        }
+        private final QueryNode node;
+        private final Map<String, Long> costs;
+        private final QueryDeadline deadline;
+        private final Map<String, Set<Page>> results;
+        private final Map<String, EvaluateTask> tasks;
 
-        if(rhs.charAt(0) == '!') {
-            Set<Page> output = index.search(rhs.substring(1));
-            output.removeAll(index.search(lhs));
-            return index.inverse(output);
+        EvaluateTask(QueryNode node, Map<String, Long> costs, QueryDeadline deadline,
+                Map<String, Set<Page>> results, Map<String, EvaluateTask> tasks) {
+            this.node = node;
+            this.costs = costs;
+            this.deadline = deadline;
+            this.results = results;
+            this.tasks = tasks;
         }
 
-        if(lhs.charAt(0) != '\"') {
-            Set<Page> output = index.searchWord(lhs);
-            if(rhs.charAt(0) != '\"') {
-                output.addAll(index.searchWord(rhs));
-            } else {
-                output.addAll(index.searchPhraseRemove(rhs, output));
-            }
-            return output;
-        }
-        if(rhs.charAt(0) != '\"') {
-            Set<Page> output = index.searchWord(rhs);
-            if(lhs.charAt(0) != '\"') {
-                output.addAll(index.searchWord(lhs));
-            } else {
-                output.addAll(index.searchPhraseRemove(lhs, output));
+        @Override
+        protected Set<Page> compute() {
+            QueryDeadline resumed = deadline == null ? null : deadline.resume();
+            try {
+                List<EvaluateTask> forked = new ArrayList<>();
+                List<QueryNode> cheap = new ArrayList<>();
+                for(QueryNode dependency: node.dependencies()) {
+                    if(costs.get(dependency.key()) < MIN_TASK_COST) {
+                        cheap.add(dependency);
+                        continue;
+                    }
+                    EvaluateTask task = new EvaluateTask(dependency, costs, deadline, results, tasks);
+                    EvaluateTask existing = tasks.putIfAbsent(dependency.key(), task);
+                    if(existing == null) {
+                        task.fork();
+                        forked.add(task);
+                    } else {
+                        forked.add(existing);
+                    }
+                }
+                for(QueryNode dependency: cheap) {
+                    evaluate(dependency, results);
+                }
+                for(EvaluateTask task: forked) {
+                    task.join();
+                }
+                QueryDeadline.check();
+                Set<Page> output = node.evaluate(index, results);
+                results.put(node.key(), output);
+                return output;
+            } finally {
+                if(resumed != null) {
+                    resumed.end();
+                }
             }
-            return output;
-        }
-
-        Set<Page> output = index.search(lhs);
-        output.addAll(index.searchPhraseRemove(lhs, output));
-        return output;
-    }
-
-    private void or(String token, Set<Page> pageSet) {
-        if (token.charAt(0) == '"') {
-            pageSet.addAll(index.searchPhraseRemove(token, pageSet));
-        } else {
-            pageSet.addAll(index.searchWord(token));
         }
     }
 }
@@ -1,8 +1,14 @@
 package CrawlerAndQueryEngine;
 
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
 import java.io.*;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
 import java.net.*;
+import java.nio.charset.StandardCharsets;
 
 /**
  * A very basic implementation of an HTTP web server which provides a search bar and
@@ -15,136 +21,929 @@ public class WebServer {
   /**
    * main method to start a server.
    * Loads a WebIndex from the default save location.
+   *
+   * A sample of the queries answered is logged to queries.log, and the most
+   * frequent of them are replayed before the port is opened, so the first
+   * real requests don't wait on a cold JIT and page cache. --query-log FILE
+   * logs somewhere else, --sample N logs one in every N queries (0 turns the
+   * log off) and --warmup-millis N limits how long replaying takes (0 skips
+   * it).
    */
   public static void main(String[] args) throws Exception {
-    WebQueryEngine wqe = WebQueryEngine.fromIndex(
-        (WebIndex) Index.load("index.db"));
-    WebServer server = new WebServer(wqe);
+    File queryLogFile = new File("queries.log");
+    int sampleEvery = DEFAULT_SAMPLE_EVERY;
+    long warmupMillis = DEFAULT_WARMUP_MILLIS;
+    int first = 0;
+    while (first + 1 < args.length && args[first].startsWith("--")) {
+      if (args[first].equals("--query-log")) {
+        queryLogFile = new File(args[first + 1]);
+      } else if (args[first].equals("--sample")) {
+        sampleEvery = Integer.parseInt(args[first + 1]);
+      } else if (args[first].equals("--warmup-millis")) {
+        warmupMillis = Long.parseLong(args[first + 1]);
+      } else {
+        System.err.printf("Error: Unknown option '%s'.%n", args[first]);
+        System.exit(1);
+      }
+      first += 2;
+    }
+    args = Arrays.copyOfRange(args, first, args.length);
+
+    WebServer server;
+    if (args.length == 0) {
+      WebQueryEngine wqe = WebQueryEngine.fromIndex(
+          (WebIndex) Index.load("index.db"));
+      registerIndexMetrics("index.db", wqe.getIndex());
+      SnippetGenerator snippets = null;
+      if (new File("docs.db").exists()) {
+        snippets = new SnippetGenerator(wqe.getIndex(), DocStore.open("docs.db"));
+      }
+      server = new WebServer(wqe, snippets);
+    } else {
+      // Each argument is either an index shard file or the host:port of a ShardServer
+      List<IndexShard> shards = new ArrayList<>();
+      // Suggestions and corrections come from the shards held here; remote
+      // shards don't contribute
+      SuggestionIndex.Builder suggestions = new SuggestionIndex.Builder();
+      List<WebIndex> localIndexes = new ArrayList<>();
+      List<WebQueryEngine> localEngines = new ArrayList<>();
+      for (String shard : args) {
+        if (new File(shard).exists()) {
+          WebIndex shardIndex = (WebIndex) Index.load(shard);
+          registerIndexMetrics(shard, shardIndex);
+          suggestions.addIndex(shardIndex);
+          localIndexes.add(shardIndex);
+          WebQueryEngine engine = WebQueryEngine.fromIndex(shardIndex);
+          localEngines.add(engine);
+          shards.add(new LocalShard(engine, SHARD_TIMEOUT_MILLIS));
+        } else {
+          shards.add(RemoteShard.parse(shard, SHARD_TIMEOUT_MILLIS));
+        }
+      }
+      ShardRouter router = new ShardRouter(shards, MAX_CONCURRENT_REQUESTS,
+          SHARD_TIMEOUT_MILLIS, true);
+      server = new WebServer(router, suggestions.build(),
+          SpellingCorrector.fromIndexes(localIndexes));
+      server.setEngines(localEngines);
+    }
 
+    if (sampleEvery > 0) {
+      server.setQueryLog(new QueryLog(queryLogFile, sampleEvery, MAX_QUERY_LOG_BYTES));
+    }
+    server.setWarmup(queryLogFile, warmupMillis);
     server.serve();
   }
 
-  private WebQueryEngine engine;
+  /**
+   * Publishes the size of a loaded index on the /metrics page.
+   */
+  private static void registerIndexMetrics(String name, WebIndex index) {
+    Metrics.gauge("tsoogle_index_pages{index=\"" + name + "\"}",
+        "Live pages in each loaded index", index::size);
+    Metrics.gauge("tsoogle_index_terms{index=\"" + name + "\"}",
+        "Distinct words in each loaded index", index::termCount);
+  }
+
+  private static final LatencyHistogram SEARCH_TIME = Metrics.histogram(
+      "tsoogle_request_seconds{path=\"/search\"}", "Time spent answering each kind of request");
+  private static final LatencyHistogram API_SEARCH_TIME = Metrics.histogram(
+      "tsoogle_request_seconds{path=\"/api/search\"}", "Time spent answering each kind of request");
+  private static final LatencyHistogram SUGGEST_TIME = Metrics.histogram(
+      "tsoogle_request_seconds{path=\"/suggest\"}", "Time spent answering each kind of request");
+  private static final LatencyHistogram HOMEPAGE_TIME = Metrics.histogram(
+      "tsoogle_request_seconds{path=\"/\"}", "Time spent answering each kind of request");
+  private static final LatencyHistogram RENDER_TIME = Metrics.histogram(
+      "tsoogle_query_stage_seconds{stage=\"render\"}", "Time spent in each stage of a query");
+  private static final LatencyHistogram SNIPPET_TIME = Metrics.histogram(
+      "tsoogle_query_stage_seconds{stage=\"snippet\"}", "Time spent in each stage of a query");
+  private static final LongAdder REJECTED = Metrics.counter(
+      "tsoogle_requests_rejected_total", "Requests turned away because the server was overloaded");
+  private static final LongAdder TIMEOUTS = Metrics.counter(
+      "tsoogle_query_timeouts_total", "Queries abandoned for taking too long");
+
+  // How long to wait for the shards of a sharded index to answer
+  private static final int SHARD_TIMEOUT_MILLIS = 2000;
+  // Queries taking longer than this are abandoned
+  private static final int QUERY_TIMEOUT_MILLIS = 2000;
+  // Results returned by /api/search when no limit is given, and the most it will return
+  private static final int DEFAULT_API_LIMIT = 10;
+  private static final int MAX_API_LIMIT = 1000;
+  // Heaviest words listed by /admin/index when no number is given, and the most it will list
+  private static final int DEFAULT_TOP_TERMS = 20;
+  private static final int MAX_TOP_TERMS = 1000;
+  // Results given snippets, and the most time spent on them for one query
+  private static final int MAX_SNIPPETS = 10;
+  private static final int SNIPPET_BUDGET_MILLIS = 20;
+  // Requests handled at once; further requests wait in a queue
+  private static final int MAX_CONCURRENT_REQUESTS =
+      Runtime.getRuntime().availableProcessors();
+  // Requests arriving when the queue is full are turned away immediately
+  private static final int MAX_QUEUED_REQUESTS = 64;
+  // Clients that go this long without sending any of their request are
+  // dropped, so idle connections can't hold on to the workers
+  private static final int CLIENT_READ_TIMEOUT_MILLIS = 1000;
+  // Queries logged by default, one in every so many, and the size at which
+  // the log is started afresh, keeping the one before
+  private static final int DEFAULT_SAMPLE_EVERY = 10;
+  private static final long MAX_QUERY_LOG_BYTES = 16 * 1024 * 1024;
+  // Most time spent replaying logged queries by default, the most queries
+  // replayed, and how many times each is replayed if there's time
+  private static final long DEFAULT_WARMUP_MILLIS = 10000;
+  private static final int WARMUP_QUERIES = 1000;
+  private static final int WARMUP_PASSES = 3;
+
+  /**
+   * Everything requests are answered from. Swapping the index replaces all of
+   * it at once, so a request never sees parts of two indexes.
+   */
+  private static class Searcher {
+    final IndexShard index;
+    final SuggestionIndex suggestions;
+    final SpellingCorrector corrector;
+    // Builds the snippets shown under results, or null if the pages' text isn't available
+    final SnippetGenerator snippets;
+    // The engines of the indexes held in this process, which can explain queries
+    final List<WebQueryEngine> engines;
+    // What /admin/index reports for each engine's index, gathered the first
+    // time it's asked for, since indexes don't change while they're served
+    private volatile List<IndexStats> stats = null;
+    private final ReentrantLock gatheringStats = new ReentrantLock();
+
+    Searcher(IndexShard index, SuggestionIndex suggestions, SpellingCorrector corrector,
+        SnippetGenerator snippets, List<WebQueryEngine> engines) {
+      this.index = index;
+      this.suggestions = suggestions;
+      this.corrector = corrector;
+      this.snippets = snippets;
+      this.engines = engines;
+    }
+
+    Searcher(WebQueryEngine wqe, SnippetGenerator snippets) {
+      this(new LocalShard(wqe, QUERY_TIMEOUT_MILLIS), wqe.getIndex().getSuggestions(),
+          SpellingCorrector.fromIndexes(Collections.singletonList(wqe.getIndex())),
+          snippets, Collections.singletonList(wqe));
+    }
+
+    /**
+     * Returns the statistics of each engine's index, listing MAX_TOP_TERMS
+     * heaviest terms, or null if another request is gathering them. Only
+     * one request at a time walks the indexes, since it takes as long as
+     * saving them.
+     */
+    List<IndexStats> stats() {
+      if (stats == null && gatheringStats.tryLock()) {
+        try {
+          if (stats == null) {
+            List<IndexStats> gathered = new ArrayList<>();
+            for (WebQueryEngine engine : engines) {
+              gathered.add(engine.getIndex().stats(MAX_TOP_TERMS));
+            }
+            stats = gathered;
+          }
+        } finally {
+          gatheringStats.unlock();
+        }
+      }
+      return stats;
+    }
+  }
+
+  private volatile Searcher current;
+  // Samples the queries answered, or null if they aren't logged
+  private QueryLog queryLog = null;
+  // The log whose queries warm up an index before it's used, and for how long
+  private File warmupLog = null;
+  private long warmupMillis = 0;
 
   public WebServer(WebQueryEngine wqe) {
-    engine = wqe;
+    this(wqe, null);
+  }
+
+  /**
+   * Answers queries from a single index, showing snippets of each page's
+   * text under its results if snippets isn't null.
+   */
+  public WebServer(WebQueryEngine wqe, SnippetGenerator snippets) {
+    current = new Searcher(wqe, snippets);
+  }
+
+  public WebServer(IndexShard index) {
+    this(index, new SuggestionIndex.Builder().build(),
+        new SpellingCorrector(Collections.emptyMap()));
+  }
+
+  public WebServer(IndexShard index, SuggestionIndex suggestions,
+      SpellingCorrector corrector) {
+    current = new Searcher(index, suggestions, corrector, null, Collections.emptyList());
+  }
+
+  /**
+   * Shows snippets of each page's text under its search results. Only works
+   * for a single index, since the pages of sharded results can't be told
+   * apart by ID.
+   */
+  public void setSnippets(SnippetGenerator snippets) {
+    Searcher s = current;
+    current = new Searcher(s.index, s.suggestions, s.corrector, snippets, s.engines);
+  }
+
+  /**
+   * Sets the engines that /search?explain=1 asks how they answered the
+   * query, and whose indexes /admin/index describes. Only indexes held in
+   * this process can be explained.
+   */
+  public void setEngines(List<WebQueryEngine> engines) {
+    Searcher s = current;
+    current = new Searcher(s.index, s.suggestions, s.corrector, s.snippets, engines);
+  }
+
+  /**
+   * Logs a sample of the queries answered from now on.
+   */
+  public void setQueryLog(QueryLog queryLog) {
+    this.queryLog = queryLog;
+  }
+
+  /**
+   * Replays the most frequent queries of the given log, for at most
+   * budgetMillis, before the server opens its port and before a swapped in
+   * index is used.
+   */
+  public void setWarmup(File log, long budgetMillis) {
+    this.warmupLog = log;
+    this.warmupMillis = budgetMillis;
+  }
+
+  /**
+   * Starts answering queries from another index held in this process, along
+   * with the snippets of its pages if snippets isn't null. The new index is
+   * warmed up first, while requests are still answered from the old one.
+   */
+  public void swapIndex(WebQueryEngine wqe, SnippetGenerator snippets) {
+    Searcher next = new Searcher(wqe, snippets);
+    warmUp(next);
+    current = next;
+  }
+
+  /**
+   * Replays the most frequent logged queries against a searcher, rendering
+   * both the results page and the API answer for each into nothing, so the
+   * JIT has compiled the query path and the document store is in the page
+   * cache before real requests need them. Each query is replayed up to
+   * WARMUP_PASSES times, for as long as the budget allows. Nothing done
+   * while replaying is recorded in the metrics.
+   */
+  private void warmUp(Searcher searcher) {
+    if (warmupLog == null || warmupMillis <= 0) {
+      return;
+    }
+    List<String> queries;
+    try {
+      queries = QueryLog.topQueries(warmupLog, WARMUP_QUERIES);
+    } catch (IOException e) {
+      System.err.println("Error: Couldn't read the query log to warm up from.");
+      e.printStackTrace(System.err);
+      return;
+    }
+    if (queries.isEmpty()) {
+      return;
+    }
+
+    OutputStream nowhere = new OutputStream() {
+      @Override
+      public void write(int b) {
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) {
+      }
+    };
+    long start = System.nanoTime();
+    long deadline = start + TimeUnit.MILLISECONDS.toNanos(warmupMillis);
+    int replayed = 0;
+    // Replays aren't real traffic, so they're kept out of the metrics
+    Metrics.setRecording(false);
+    try {
+      replay:
+      for (int pass = 0; pass < WARMUP_PASSES; pass++) {
+        for (String query : queries) {
+          if (System.nanoTime() >= deadline) {
+            break replay;
+          }
+          HashMap<String, String> params = new HashMap<>();
+          params.put("query", query);
+          params.put("q", query);
+          HttpRequest request = new HttpRequest("/search", "GET", "HTTP/1.1",
+              new HashMap<>(), params);
+          try {
+            renderSearchResults(searcher, nowhere, request, false);
+            renderApiSearch(searcher, nowhere, request, false);
+          } catch (IOException e) {
+            // Nothing is written anywhere, so nothing can go wrong writing it
+          }
+          replayed++;
+        }
+      }
+    } finally {
+      Metrics.setRecording(true);
+    }
+    System.err.printf("Warmed up on the %d most frequent logged queries, %d replays in %d ms%n",
+        queries.size(), replayed, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
   }
 
   /**
    * Open the server to incoming connections, loop and respond.
+   *
+   * Requests are handled by a fixed pool of workers. When every worker is
+   * busy and the queue is full, new connections get an immediate 503 rather
+   * than piling up, and queued requests that have already waited longer than
+   * a query is allowed to run are turned away as well.
    */
   public void serve() throws IOException {
+    warmUp(current);
     int port = 1989;
     ServerSocket serverSocket = new ServerSocket(port);
     System.err.println("Running server on port: " + port);
 
-    // repeatedly wait for connections, and process
+    ThreadPoolExecutor workers = new ThreadPoolExecutor(
+        MAX_CONCURRENT_REQUESTS, MAX_CONCURRENT_REQUESTS, 0, TimeUnit.SECONDS,
+        new ArrayBlockingQueue<>(MAX_QUEUED_REQUESTS));
+
+    // repeatedly wait for connections, and hand them to a worker
     while (true) {
       Socket clientSocket = serverSocket.accept();
+      long acceptedNanos = System.nanoTime();
+      try {
+        clientSocket.setSoTimeout(CLIENT_READ_TIMEOUT_MILLIS);
+        workers.execute(() -> handle(clientSocket, acceptedNanos));
+      } catch (RejectedExecutionException e) {
+        reject(clientSocket);
+      } catch (SocketException e) {
+        // The client is gone already
+        clientSocket.close();
+      }
+    }
+  }
+
+  /**
+   * Reads one request from the client and responds to it.
+   */
+  private void handle(Socket clientSocket, long acceptedNanos) {
+    OutputStream out = null;
+    try {
+      if (System.nanoTime() - acceptedNanos >
+          TimeUnit.MILLISECONDS.toNanos(QUERY_TIMEOUT_MILLIS)) {
+        reject(clientSocket);
+        return;
+      }
 
       BufferedReader in = new BufferedReader(
           new InputStreamReader(clientSocket.getInputStream()));
-      BufferedWriter out = new BufferedWriter(
-          new OutputStreamWriter(clientSocket.getOutputStream()));
+      out = new BufferedOutputStream(clientSocket.getOutputStream());
 
-      String s;
       HttpRequest request = parseRequest(in);
 
+      if (request != null) {
+        boolean gzip = ResponseWriter.acceptsGzip(request.headers.get("accept-encoding"));
 
-      if(request == null) {
-        continue;
-      }
-
-      // The most basic of routing tables
-      switch (request.url) {
-        case "/search":
-          //long previousTime = java.lang.System.currentTimeMillis();
-          renderSearchResults(out, request.params);
-          //System.out.println(java.lang.System.currentTimeMillis() - previousTime);
-          break;
-        case "/":
-        default:
-          renderHomepage(out);
+        // The most basic of routing tables
+        long start = System.nanoTime();
+        Searcher searcher = current;
+        switch (request.url) {
+          case "/search":
+            renderSearchResults(searcher, out, request, gzip);
+            SEARCH_TIME.recordSince(start);
+            logQuery(request.params.get("query"));
+            break;
+          case "/api/search":
+            renderApiSearch(searcher, out, request, gzip);
+            API_SEARCH_TIME.recordSince(start);
+            logQuery(request.params.get("q"));
+            break;
+          case "/suggest":
+            renderSuggestions(searcher, out, request, gzip);
+            SUGGEST_TIME.recordSince(start);
+            break;
+          case "/metrics":
+            renderMetrics(out, request, gzip);
+            break;
+          case "/admin/index":
+            renderIndexStats(searcher, out, request, gzip);
+            break;
+          case "/":
+          default:
+            ResponseWriter.send(out, request.version, gzip, "200 OK", "text/html", HOMEPAGE);
+            HOMEPAGE_TIME.recordSince(start);
+        }
       }
       out.close();
       in.close();
+    } catch (SocketTimeoutException e) {
+      // The client didn't send its request in time
+    } catch (IOException e) {
+      // An error with this request might not need to bring down the server
+      e.printStackTrace(System.err);
+    } catch (RuntimeException e) {
+      // A bug answering this request shouldn't leave the client hanging
+      e.printStackTrace(System.err);
+      if (out != null) {
+        fail(out);
+      }
+    } finally {
+      try {
+        clientSocket.close();
+      } catch (IOException e) {
+        // Nothing more to do for this client
+      }
+    }
+  }
+
+  /**
+   * Tells the client its request failed. Responses are buffered until
+   * they're finished, so usually none of the failed one has been sent.
+   */
+  private void fail(OutputStream out) {
+    try {
+      out.write(utf8("HTTP/1.0 500 Internal Server Error\r\n" +
+          "Content-Length: 0\r\n" +
+          "\r\n"));
+      out.close();
+    } catch (IOException e) {
+      // The client is gone anyway
+    }
+  }
+
+  private void logQuery(String query) {
+    if (queryLog != null) {
+      queryLog.record(query);
+    }
+  }
+
+  /**
+   * Turns a client away because the server is overloaded.
+   */
+  private void reject(Socket clientSocket) {
+    REJECTED.increment();
+    try {
+      Writer out = new OutputStreamWriter(clientSocket.getOutputStream());
+      out.write("HTTP/1.0 503 Service Unavailable\r\n" +
+          "Retry-After: 1\r\n" +
+          "Content-Length: 0\r\n" +
+          "\r\n");
+      out.close();
       clientSocket.close();
+    } catch (IOException e) {
+      // The client is gone anyway
     }
   }
 
   /**
    * This is going to serve the page that shows results of querying the WebIndex.
+   * Results are streamed to the client as they're laid out, so a long list
+   * never has to be held in memory as one big string.
    */
-  private void renderSearchResults(BufferedWriter out,
-      HashMap<String, String> params) {
-    StringBuilder content = new StringBuilder();
-    content.append("<TITLE>Results</TITLE>");
-    content.append("<body> <div style='width:800px; margin:0 auto;'>");
-    content.append("<a href='/'>");
-    content.append(layoutLogo());
-    content.append("</a>");
+  private void renderSearchResults(Searcher searcher, OutputStream out, HttpRequest request,
+      boolean gzip) throws IOException {
+    StringBuilder notes = new StringBuilder();
 
     // Probably add a disclaimer about file links
-    List<Page> results = new ArrayList<>(engine.query(params.get("query")));
-    Collections.sort(results);
-
-    if (results.size() > 0) {
-      content.append("<p>Here are the results of your query.<br> ");
-      content.append("Some browsers don't follow file:// links ");
-      content.append("for security reasons so you'll have to paste the link ");
-      content.append("into the URL bar instead of clicking it.</p>");
+    List<Page> results = new ArrayList<>();
+    String status = "200 OK";
+    String query = request.params.get("query");
+    try {
+      SearchResults found = searcher.index.search(query, Integer.MAX_VALUE);
+      results = found.getPages();
+      if (found.isPartial()) {
+        notes.append("<p>Part of the index didn't respond in time, ");
+        notes.append("so some results may be missing.</p>");
+      }
+      String corrected = results.isEmpty() ? correctQuery(searcher.corrector, query) : null;
+      if (corrected != null) {
+        notes.append("<p>Did you mean <a href='/search?query=");
+        notes.append(Html.escape(URLEncoder.encode(corrected, "UTF-8")));
+        notes.append("'><i>");
+        notes.append(Html.escape(corrected));
+        notes.append("</i></a>?</p>");
+      }
+    } catch (QueryTimeoutException e) {
+      if (Metrics.isRecording()) {
+        TIMEOUTS.increment();
+      }
+      status = "503 Service Unavailable";
+      notes.append("<p>Your query took too long to answer.</p>");
+    } catch (IOException e) {
+      e.printStackTrace(System.err);
+      status = "503 Service Unavailable";
+      notes.append("<p>Your query couldn't be answered right now.</p>");
+    }
+    if (query != null && "1".equals(request.params.get("explain"))) {
+      explain(notes, searcher.engines, query);
+    }
+
+    long renderStart = System.nanoTime();
+    ResponseWriter response = new ResponseWriter(out, request.version, gzip, status, "text/html");
+    response.write(RESULTS_HEADER);
+    response.write(notes.toString());
+    response.write(results.size() > 0 ? RESULTS_FOUND : NO_RESULTS);
+    // Snippets are only built for the first few results, and only until the
+    // time set aside for them runs out
+    SnippetGenerator snippets = searcher.snippets;
+    List<List<String>> phrases = snippets == null ? null : SnippetGenerator.queryPhrases(query);
+    long snippetDeadline = System.nanoTime() +
+        TimeUnit.MILLISECONDS.toNanos(SNIPPET_BUDGET_MILLIS);
+    StringBuilder item = new StringBuilder();
+    for (int i = 0; i < results.size(); i++) {
+      Page p = results.get(i);
+      item.setLength(0);
+      item.append("<li>");
+      item.append(layoutPageContent(p));
+      item.append('\n');
+      item.append(p.getConnectedness());
+      item.append(" connections");
+      if (phrases != null && i < MAX_SNIPPETS && System.nanoTime() < snippetDeadline) {
+        long snippetStart = System.nanoTime();
+        String snippet = snippets.snippet(p, phrases);
+        SNIPPET_TIME.recordSince(snippetStart);
+        if (snippet != null) {
+          item.append("<br>");
+          item.append(snippet);
+        }
+      }
+      item.append("</li>\n");
+      response.write(item.toString());
+    }
+    response.write(RESULTS_FOOTER);
+    response.finish();
+    RENDER_TIME.recordSince(renderStart);
+  }
+
+  /**
+   * Appends how each index held here answered the query, as preformatted
+   * text. Explaining runs the query again, under the same time limit.
+   */
+  private void explain(StringBuilder notes, List<WebQueryEngine> engines, String query) {
+    if (engines.isEmpty()) {
+      notes.append("<p>Only indexes held by this server can be explained.</p>");
+      return;
+    }
+    for (int i = 0; i < engines.size(); i++) {
+      notes.append("<pre>");
+      if (engines.size() > 1) {
+        notes.append("shard ").append(i).append('\n');
+      }
+      try {
+        notes.append(Html.escape(engines.get(i).explain(query, QUERY_TIMEOUT_MILLIS).toString()));
+      } catch (QueryTimeoutException e) {
+        notes.append("Explaining the query took too long.");
+      }
+      notes.append("</pre>\n");
+    }
+  }
+
+  /**
+   * Answers a search for other programs rather than people.
+   *
+   * Takes the query as q, the window of ranked results to return as offset
+   * and limit, and optionally a comma-separated list of fields to return for
+   * each page, out of url and connections. Only offset + limit pages are ever
+   * ranked, however many match. The answer is JSON, or with format=binary,
+   * the compact form written by writeBinaryResults.
+   */
+  private void renderApiSearch(Searcher searcher, OutputStream out, HttpRequest request,
+      boolean gzip) throws IOException {
+    String query = request.params.get("q");
+    int offset, limit;
+    boolean withURL = true, withConnections = true;
+    boolean binary = "binary".equals(request.params.get("format"));
+    try {
+      if (query == null) {
+        throw new IllegalArgumentException("q is required");
+      }
+      offset = intParam(request.params, "offset", 0);
+      limit = intParam(request.params, "limit", DEFAULT_API_LIMIT);
+      if (offset < 0 || limit < 0 || limit > MAX_API_LIMIT) {
+        throw new IllegalArgumentException(
+            "offset must be at least 0 and limit between 0 and " + MAX_API_LIMIT);
+      }
+      String fields = request.params.get("fields");
+      if (fields != null) {
+        withURL = false;
+        withConnections = false;
+        for (String field : fields.split(",")) {
+          if (field.equals("url")) {
+            withURL = true;
+          } else if (field.equals("connections")) {
+            withConnections = true;
+          } else {
+            throw new IllegalArgumentException("Unknown field " + field);
+          }
+        }
+      }
+    } catch (IllegalArgumentException e) {
+      renderApiError(out, request, gzip, "400 Bad Request", e.getMessage());
+      return;
+    }
+
+    SearchResults found;
+    try {
+      found = searcher.index.search(query,
+          (int) Math.min((long) offset + limit, Integer.MAX_VALUE));
+    } catch (QueryTimeoutException e) {
+      if (Metrics.isRecording()) {
+        TIMEOUTS.increment();
+      }
+      renderApiError(out, request, gzip, "503 Service Unavailable", "Query timed out");
+      return;
+    } catch (IOException e) {
+      e.printStackTrace(System.err);
+      renderApiError(out, request, gzip, "503 Service Unavailable", "Query failed");
+      return;
+    }
+    List<Page> ranked = found.getPages();
+    List<Page> results = ranked.subList(Math.min(offset, ranked.size()), ranked.size());
+
+    long renderStart = System.nanoTime();
+    if (binary) {
+      ResponseWriter response = new ResponseWriter(out, request.version, gzip, "200 OK",
+          "application/octet-stream");
+      writeBinaryResults(new DataOutputStream(response), found, results,
+          withURL, withConnections);
+      response.finish();
     } else {
-      content.append("<p>Your query returned no results.</p>");
+      ResponseWriter response = new ResponseWriter(out, request.version, gzip, "200 OK",
+          "application/json; charset=utf-8");
+      JsonWriter json = new JsonWriter(new BufferedWriter(
+          new OutputStreamWriter(response, StandardCharsets.UTF_8)));
+      json.beginObject()
+          .name("query").value(query)
+          .name("offset").value(offset)
+          .name("limit").value(limit)
+          .name("total").value(found.getTotalHits())
+          .name("partial").value(found.isPartial());
+      String corrected = found.getTotalHits() == 0
+          ? correctQuery(searcher.corrector, query) : null;
+      if (corrected != null) {
+        json.name("corrected").value(corrected);
+      }
+      json.name("results").beginArray();
+      for (Page p : results) {
+        json.beginObject();
+        if (withURL) {
+          json.name("url").value(p.getURL().toString());
+        }
+        if (withConnections) {
+          json.name("connections").value(p.getConnectedness());
+        }
+        json.endObject();
+      }
+      json.endArray().endObject();
+      json.flush();
+      response.finish();
     }
-    content.append("<ul>\n");
+    RENDER_TIME.recordSince(renderStart);
+  }
+
+  /**
+   * Returns the query with each word that isn't in the index replaced by the
+   * closest word that is, or null if no word could be corrected.
+   */
+  private String correctQuery(SpellingCorrector corrector, String query) {
+    StringBuilder corrected = new StringBuilder(query.length());
+    boolean changed = false;
+    int i = 0;
+    while (i < query.length()) {
+      if (!Character.isLetterOrDigit(query.charAt(i))) {
+        corrected.append(query.charAt(i++));
+        continue;
+      }
+      int start = i;
+      while (i < query.length() && Character.isLetterOrDigit(query.charAt(i))) {
+        i++;
+      }
+      String word = query.substring(start, i).toLowerCase(Locale.ROOT);
+      String replacement = corrector.correct(word);
+      if (replacement != null && !replacement.equals(word)) {
+        corrected.append(replacement);
+        changed = true;
+      } else {
+        corrected.append(query, start, i);
+      }
+    }
+    return changed ? corrected.toString() : null;
+  }
+
+  /**
+   * Suggests the most popular words starting with the given prefix, as a
+   * JSON list. Used by the homepage to complete the word being typed.
+   */
+  private void renderSuggestions(Searcher searcher, OutputStream out, HttpRequest request,
+      boolean gzip) throws IOException {
+    String prefix = request.params.getOrDefault("prefix", "").toLowerCase(Locale.ROOT);
+    int limit;
+    try {
+      limit = Math.min(intParam(request.params, "limit", SuggestionIndex.MAX_SUGGESTIONS),
+          SuggestionIndex.MAX_SUGGESTIONS);
+      if (limit < 0) {
+        throw new IllegalArgumentException("limit must be at least 0");
+      }
+    } catch (IllegalArgumentException e) {
+      renderApiError(out, request, gzip, "400 Bad Request", e.getMessage());
+      return;
+    }
+
+    ResponseWriter response = new ResponseWriter(out, request.version, gzip, "200 OK",
+        "application/json; charset=utf-8");
+    Writer writer = new OutputStreamWriter(response, StandardCharsets.UTF_8);
+    JsonWriter json = new JsonWriter(writer);
+    json.beginObject().name("prefix").value(prefix).name("suggestions").beginArray();
+    for (String term : searcher.suggestions.suggest(prefix, limit)) {
+      json.value(term);
+    }
+    json.endArray().endObject();
+    writer.flush();
+    response.finish();
+  }
+
+  /**
+   * Writes search results in a compact binary form. All numbers are big-endian.
+   *
+   * The total number of hits (int), whether the results are partial (byte),
+   * the fields present (byte: 1 for url, 2 for connections) and the number of
+   * results (int), followed by each result's fields in that order. A url is
+   * its length in bytes (int) followed by its UTF-8 bytes, and connections is
+   * an int.
+   */
+  private void writeBinaryResults(DataOutputStream out, SearchResults found,
+      List<Page> results, boolean withURL, boolean withConnections) throws IOException {
+    out.writeInt(found.getTotalHits());
+    out.writeByte(found.isPartial() ? 1 : 0);
+    out.writeByte((withURL ? 1 : 0) | (withConnections ? 2 : 0));
+    out.writeInt(results.size());
     for (Page p : results) {
-      content.append("<li>");
-      content.append(layoutPageContent(p));
-      content.append('\n');
-      content.append(p.getConnectedness());
-      content.append(" connections");
-      content.append("</li>\n");
+      if (withURL) {
+        byte[] url = utf8(p.getURL().toString());
+        out.writeInt(url.length);
+        out.write(url);
+      }
+      if (withConnections) {
+        out.writeInt(p.getConnectedness());
+      }
     }
-    content.append("</ul>\n</div> </body>");
+    out.flush();
+  }
+
+  private void renderApiError(OutputStream out, HttpRequest request, boolean gzip,
+      String status, String message) throws IOException {
+    ResponseWriter response = new ResponseWriter(out, request.version, gzip, status,
+        "application/json; charset=utf-8");
+    Writer writer = new OutputStreamWriter(response, StandardCharsets.UTF_8);
+    new JsonWriter(writer).beginObject().name("error").value(message).endObject();
+    writer.flush();
+    response.finish();
+  }
 
-    renderResponse(out, content.toString());
+  private static int intParam(Map<String, String> params, String name, int otherwise) {
+    String value = params.get(name);
+    if (value == null) {
+      return otherwise;
+    }
+    try {
+      return Integer.parseInt(value);
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException(name + " must be a number");
+    }
   }
 
   /**
-   * This will render our snazzy homepage.
+   * Serves every metric in the Prometheus text format.
    */
-  private void renderHomepage(BufferedWriter out) {
-    String content = "<TITLE>Home</TITLE>" +
-      "<body> <div style='width:800px; margin:0 auto;'>" + layoutLogo() +
+  private void renderMetrics(OutputStream out, HttpRequest request, boolean gzip)
+      throws IOException {
+    StringBuilder content = new StringBuilder();
+    Metrics.render(content);
+    ResponseWriter response = new ResponseWriter(out, request.version, gzip, "200 OK",
+        "text/plain; version=0.0.4");
+    response.write(content.toString());
+    response.finish();
+  }
+
+  // The parts of each page which never change are laid out and encoded once
+  private static final String LOGO = layoutLogo();
+
+  /**
+   * Describes each index held here as JSON: how many pages, words and
+   * postings it has, the words on the most pages (top of them, 20 by
+   * default) and how much memory each of its structures takes, along with
+   * what the JVM as a whole is using. The statistics are gathered by the
+   * first request for them, which walks every posting of every index, and
+   * kept until the index is swapped; requests while they're being gathered
+   * get a 503.
+   */
+  private void renderIndexStats(Searcher searcher, OutputStream out, HttpRequest request,
+      boolean gzip) throws IOException {
+    int top;
+    try {
+      top = intParam(request.params, "top", DEFAULT_TOP_TERMS);
+      if (top < 0 || top > MAX_TOP_TERMS) {
+        throw new IllegalArgumentException("top must be between 0 and " + MAX_TOP_TERMS);
+      }
+    } catch (IllegalArgumentException e) {
+      renderApiError(out, request, gzip, "400 Bad Request", e.getMessage());
+      return;
+    }
+
+    List<IndexStats> stats = searcher.stats();
+    if (stats == null) {
+      renderApiError(out, request, gzip, "503 Service Unavailable",
+          "The index statistics are still being gathered");
+      return;
+    }
+
+    ResponseWriter response = new ResponseWriter(out, request.version, gzip, "200 OK",
+        "application/json; charset=utf-8");
+    Writer writer = new BufferedWriter(new OutputStreamWriter(response, StandardCharsets.UTF_8));
+    JsonWriter json = new JsonWriter(writer);
+    json.beginObject().name("indexes").beginArray();
+    for (IndexStats indexStats : stats) {
+      indexStats.withHeaviestTerms(top).writeJson(json);
+    }
+    json.endArray();
+    Runtime runtime = Runtime.getRuntime();
+    json.name("jvm").beginObject()
+        .name("heapUsed").value(runtime.totalMemory() - runtime.freeMemory())
+        .name("heapMax").value(runtime.maxMemory());
+    for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+      if (pool.getName().equals("direct")) {
+        json.name("directBytes").value(pool.getMemoryUsed());
+      }
+    }
+    json.endObject().endObject();
+    writer.flush();
+    response.finish();
+  }
+
+  // Our snazzy homepage
+  private static final ResponseWriter.StaticBody HOMEPAGE = new ResponseWriter.StaticBody(
+      "<TITLE>Home</TITLE>" +
+      "<body> <div style='width:800px; margin:0 auto;'>" + LOGO +
       "<form id='form' method='get' action='search' style='width: 50%; margin:0 auto;'>" +
-      "<input name='query' class='element text medium' style='width: 100%;' type='text' maxlength='255' value=''/>" +
+      "<input name='query' class='element text medium' style='width: 100%;' type='text' maxlength='255' value=''" +
+      " list='suggestions' autocomplete='off'/>" +
+      "<datalist id='suggestions'></datalist>" +
       "</form> <br>" +
+      // Offer completions of the last word typed
+      "<script>" +
+      "var box = document.querySelector('input[name=query]');" +
+      "box.addEventListener('input', function() {" +
+      " var words = box.value.split(' '), last = words.pop();" +
+      " if (!/^[A-Za-z0-9]+$/.test(last)) return;" +
+      " var typed = box.value;" +
+      " fetch('/suggest?prefix=' + encodeURIComponent(last)).then(function(r) { return r.json(); })" +
+      " .then(function(r) {" +
+      "  if (box.value !== typed) return;" +
+      "  var list = document.getElementById('suggestions');" +
+      "  list.innerHTML = '';" +
+      "  r.suggestions.forEach(function(s) {" +
+      "   var option = document.createElement('option');" +
+      "   option.value = words.concat([s]).join(' ');" +
+      "   list.appendChild(option);" +
+      "  });" +
+      " });" +
+      "});" +
+      "</script>" +
       "<button type='submit' form='form' value='Submit' style='display: block; margin:0 auto;'>Search</button>" +
-      "</div> </body>";
+      "</div> </body>");
 
-    renderResponse(out, content);
+  private static final byte[] RESULTS_HEADER = utf8("<TITLE>Results</TITLE>" +
+      "<body> <div style='width:800px; margin:0 auto;'>" +
+      "<a href='/'>" + LOGO + "</a>");
+  private static final byte[] RESULTS_FOUND = utf8(
+      "<p>Here are the results of your query.<br> " +
+      "Some browsers don't follow file:// links " +
+      "for security reasons so you'll have to paste the link " +
+      "into the URL bar instead of clicking it.</p><ul>\n");
+  private static final byte[] NO_RESULTS = utf8(
+      "<p>Your query returned no results.</p><ul>\n");
+  private static final byte[] RESULTS_FOOTER = utf8("</ul>\n</div> </body>");
+
+  private static byte[] utf8(String s) {
+    return s.getBytes(StandardCharsets.UTF_8);
   }
 
   /**
    * This method is going to try and create the logo on the page by loading
-   * an image file. It tries to open the image on each request instead of
-   * holding onto it, which isn't ideal.
+   * an image file. It's only loaded once, when the server starts.
    */
-  private String layoutLogo() {
-    try {
-      byte[] byteArray = new byte[5000];
-      FileInputStream fis = new FileInputStream(new File("tsoogle.png"));
-      Base64.Encoder enc = Base64.getEncoder();
-
-      // We're assuming that it manages to read all at once
-      int actual_length = fis.read(byteArray);
-
-      byte[] exactByteArray = new byte[actual_length];
-      for (int i = 0; i < actual_length; i++) {
-        exactByteArray[i] = byteArray[i];
+  private static String layoutLogo() {
+    try (FileInputStream fis = new FileInputStream(new File("tsoogle.png"))) {
+      ByteArrayOutputStream image = new ByteArrayOutputStream();
+      byte[] buffer = new byte[8192];
+      int read;
+      while ((read = fis.read(buffer)) >= 0) {
+        image.write(buffer, 0, read);
       }
 
-      String base64String = enc.encodeToString(exactByteArray);
+      String base64String = Base64.getEncoder().encodeToString(image.toByteArray());
 
       return "<img src='data:image/png;base64," + base64String +
         "' style='display: block; margin:0 auto;'>";
@@ -162,39 +961,19 @@ public class WebServer {
     return "<a href='" + p.getURL() + "'>" + p.getURL() + "</a>";
   }
 
-  /**
-   * This method pretends to be a real webserver by sending valid HTTP headers
-   * in front of the content that we're responding with.
-   */
-  private void renderResponse(BufferedWriter out, String content) {
-    try {
-      out.write("HTTP/1.0 200 OK\r\n" +
-          "Date: Fri, 31 Dec 1999 23:59:59 GMT\r\n" +
-          "Server: 314H/0.1\r\n" +
-          "Content-Type: text/html\r\n" +
-          "Content-Length: " + content.length() + "\r\n" +
-          "Expires: Sat, 01 Jan 2000 00:59:59 GMT\r\n" +
-          "Last-modified: Fri, 09 Aug 1996 14:21:40 GMT\r\n" +
-          "\r\n" +
-          content);
-    } catch (IOException e) {
-      // An error with this request might not need to bring down the server
-      e.printStackTrace(System.err);
-    }
-  }
-
   /**
    * This holds the parts of a request we might care about.
    */
   private class HttpRequest {
-    public final String method, url;
+    public final String method, url, version;
     public final HashMap<String, String> headers, params;
 
-    HttpRequest(String u, String m,
+    HttpRequest(String u, String m, String v,
         HashMap<String, String> h,
         HashMap<String, String> p) {
       url = u;
       method = m;
+      version = v;
       headers = h;
       params = p;
     }
@@ -205,7 +984,7 @@ public class WebServer {
    * section of the input stream, or null if we can't understand it.
    */
   private HttpRequest parseRequest(BufferedReader reader) throws IOException {
-    String method = "", url = "";
+    String method = "", url = "", version = "";
     HashMap<String, String> headers = new HashMap<>(), params = new HashMap<>();
 
     String initial = reader.readLine();
@@ -220,6 +999,7 @@ public class WebServer {
         return null;
       } else {
         method = cmd[0];
+        version = cmd[2];
 
         // If we have a page request
         if (cmd[0].equals("GET") || cmd[0].equals("HEAD")) {
@@ -261,6 +1041,6 @@ public class WebServer {
       }
     }
 
-    return new HttpRequest(url, method, headers, params);
+    return new HttpRequest(url, method, version, headers, params);
   }
 }
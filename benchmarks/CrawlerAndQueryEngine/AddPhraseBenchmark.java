@@ -0,0 +1,49 @@
+package CrawlerAndQueryEngine;
+
+import java.net.URL;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures how fast WebIndex.addPhrase adds pages to an index. Each iteration starts from an empty
+ * index, so the dictionary grows as it would during a crawl.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class AddPhraseBenchmark {
+    private List<List<String>> pages;
+    //Every page added to an index gets a URL of its own, since adding one at an indexed URL
+    //replaces that page instead. They're made as needed and kept for later iterations.
+    private final List<URL> urls = new ArrayList<>();
+    private WebIndex index;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp(CorpusState corpus) throws Exception {
+        pages = corpus.words;
+    }
+
+    @Setup(Level.Iteration)
+    public void newIndex() {
+        index = new WebIndex();
+        next = 0;
+    }
+
+    @Benchmark
+    public WebIndex addPhrase() throws Exception {
+        List<String> page = pages.get(next % pages.size());
+        if(next == urls.size()) {
+            urls.add(new URL("file:///corpus/page-" + next + ".html"));
+        }
+        index.setCurrentPage(new Page(urls.get(next)));
+        next++;
+        index.addPhrase(new ArrayDeque<>(page));
+        return index;
+    }
+}
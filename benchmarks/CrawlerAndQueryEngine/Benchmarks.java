@@ -0,0 +1,22 @@
+package CrawlerAndQueryEngine;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.*;
+
+/**
+ * Runs the JMH benchmarks with the GC profiler, so every result comes with its allocation rate.
+ * Takes the usual JMH command line, for example:
+ *
+ *   java -jar target/benchmarks.jar Search -p corpus=/path/to/pages
+ */
+public class Benchmarks {
+
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,150 @@
+package CrawlerAndQueryEngine;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Writes a synthetic web of HTML pages to local disk, for crawling over file:// URLs.
+ *
+ *   java -cp target/benchmarks.jar CrawlerAndQueryEngine.CorpusGenerator DIR PAGES
+ *       [WORDS_PER_PAGE] [LINKS_PER_PAGE] [DUPLICATE_FRACTION] [SEED]
+ *
+ * Page i is written to DIR/d(i / 1000)/p(i).html, so no directory holds more than 1000 pages, and
+ * DIR/d0/p0.html is the place to start crawling. Page text is drawn from a Zipfian vocabulary and
+ * page lengths are exponentially distributed around WORDS_PER_PAGE. Link targets are drawn from a
+ * Zipf distribution over the pages, giving a power-law in-degree; links are written relative to
+ * the page, and popular targets are often linked several times from one page. Every page also
+ * links to the next, so the whole web is reachable from the first page. DUPLICATE_FRACTION of the
+ * pages are mirrors of an earlier page, differing only in their footer and next-page link.
+ *
+ * Pages are generated one at a time, so memory use doesn't grow with the number of pages.
+ */
+public class CorpusGenerator {
+    private static final int PAGES_PER_DIRECTORY = 1000;
+    private static final int VOCABULARY_SIZE = 200000;
+
+    private final File directory;
+    private final int pages;
+    private final int wordsPerPage;
+    private final int linksPerPage;
+    private final double duplicateFraction;
+    private final long seed;
+    private final Zipf vocabulary = new Zipf(VOCABULARY_SIZE, 1.07);
+    private final Zipf targets;
+
+    public CorpusGenerator(File directory, int pages, int wordsPerPage, int linksPerPage,
+            double duplicateFraction, long seed) {
+        this.directory = directory;
+        this.pages = pages;
+        this.wordsPerPage = wordsPerPage;
+        this.linksPerPage = linksPerPage;
+        this.duplicateFraction = duplicateFraction;
+        this.seed = seed;
+        this.targets = new Zipf(pages, 0.9);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: CorpusGenerator DIR PAGES [WORDS_PER_PAGE] " +
+                    "[LINKS_PER_PAGE] [DUPLICATE_FRACTION] [SEED]");
+            System.exit(1);
+        }
+        CorpusGenerator generator = new CorpusGenerator(new File(args[0]),
+                Integer.parseInt(args[1]),
+                args.length > 2 ? Integer.parseInt(args[2]) : 300,
+                args.length > 3 ? Integer.parseInt(args[3]) : 10,
+                args.length > 4 ? Double.parseDouble(args[4]) : 0.05,
+                args.length > 5 ? Long.parseLong(args[5]) : 42);
+
+        long start = System.nanoTime();
+        long bytes = generator.generate();
+        System.err.printf("Wrote %d pages (%d bytes) in %.1fs; start crawling at %s%n",
+                generator.pages, bytes, (System.nanoTime() - start) / 1e9, generator.start());
+    }
+
+    //The URL of the first page, where a crawl should start
+    public String start() {
+        return new File(new File(directory, "d0"), "p0.html").toURI().toString();
+    }
+
+    /**
+     * Writes every page and returns the total number of bytes written.
+     */
+    public long generate() throws IOException {
+        long bytes = 0;
+        for (int i = 0; i < pages; i++) {
+            if (i % PAGES_PER_DIRECTORY == 0) {
+                new File(directory, "d" + i / PAGES_PER_DIRECTORY).mkdirs();
+            }
+            byte[] page = page(i).getBytes(StandardCharsets.UTF_8);
+            try (OutputStream out = new FileOutputStream(file(i))) {
+                out.write(page);
+            }
+            bytes += page.length;
+        }
+        return bytes;
+    }
+
+    private File file(int page) {
+        return new File(new File(directory, "d" + page / PAGES_PER_DIRECTORY), "p" + page + ".html");
+    }
+
+    private String page(int page) {
+        // Each page has its own generator, so a mirror can regenerate the content of its original
+        int source = page;
+        Random random = random(1, page);
+        if (page > 0 && random.nextDouble() < duplicateFraction) {
+            source = random.nextInt(page);
+        }
+        random = random(2, source);
+
+        StringBuilder html = new StringBuilder();
+        html.append("<html><head><title>Page ").append(source).append("</title></head><body>\n");
+        text(html, random);
+
+        // A mirror also links to its next page, so every page stays reachable
+        html.append("<ul>\n");
+        link(html, page, Math.min(page + 1, pages - 1));
+        int links = (int) (linksPerPage * -Math.log(1 - random.nextDouble()));
+        for (int i = 0; i < links; i++) {
+            link(html, page, targets.next(random));
+        }
+        html.append("</ul>\n<p>Footer for page ").append(page).append("</p>\n</body></html>\n");
+        return html.toString();
+    }
+
+    // Random's first values are nearly the same for nearby seeds, so mix the seed well first
+    private Random random(int stream, int page) {
+        long mixed = (seed * 31 + stream) * 0x9E3779B97F4A7C15L + page;
+        mixed = (mixed ^ (mixed >>> 33)) * 0xff51afd7ed558ccdL;
+        mixed = (mixed ^ (mixed >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return new Random(mixed ^ (mixed >>> 33));
+    }
+
+    private void text(StringBuilder html, Random random) {
+        int words = Math.max(10, (int) (wordsPerPage * -Math.log(1 - random.nextDouble())));
+        html.append("<p>");
+        for (int i = 0; i < words; i++) {
+            html.append(Zipf.word(vocabulary.next(random)));
+            if (i % 80 == 79) {
+                html.append(".</p>\n<p>");
+            } else {
+                html.append(i % 12 == 11 ? ". " : " ");
+            }
+        }
+        html.append("</p>\n");
+    }
+
+    private void link(StringBuilder html, int from, int to) {
+        int fromDirectory = from / PAGES_PER_DIRECTORY;
+        int toDirectory = to / PAGES_PER_DIRECTORY;
+        html.append("<li><a href='");
+        if (fromDirectory != toDirectory) {
+            html.append("../d").append(toDirectory).append('/');
+        } else if (to % 2 == 0) {
+            html.append("./");
+        }
+        html.append('p').append(to).append(".html'>Page ").append(to).append("</a></li>\n");
+    }
+}
@@ -0,0 +1,152 @@
+package CrawlerAndQueryEngine;
+
+import java.io.*;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.*;
+
+import org.attoparser.config.ParseConfiguration;
+import org.attoparser.simple.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * The pages, index and queries shared by the benchmarks. By default the pages are synthetic text
+ * with a Zipfian vocabulary; "-p corpus=DIR" uses the .html files under DIR instead, such as a
+ * recorded crawl or the output of CorpusGenerator.
+ */
+@State(Scope.Benchmark)
+public class CorpusState {
+    @Param({"synthetic"})
+    public String corpus;
+
+    @Param({"2000"})
+    public int pages;
+
+    //Raw text of each page
+    public List<String> documents;
+    //The words of each page, as the crawler tokenizes them
+    public List<List<String>> words;
+    public WebIndex index;
+    public WebQueryEngine engine;
+    //A mix of word, phrase, and, or, not and grouped queries
+    public String[] queries;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Random random = new Random(42);
+        documents = corpus.equals("synthetic") ? synthetic(random) : recorded(Paths.get(corpus));
+
+        CrawlingMarkupHandler handler = new CrawlingMarkupHandler();
+        ISimpleMarkupParser parser = new SimpleMarkupParser(ParseConfiguration.htmlConfiguration());
+        words = new ArrayList<>();
+        for(int i = 0; i < documents.size(); i++) {
+            handler.setCurrentURL(new URL("file:///corpus/" + i + ".html"));
+            parser.parse(new StringReader(documents.get(i)), handler);
+            words.add(tokenize(documents.get(i)));
+        }
+        index = (WebIndex) handler.getIndex();
+        engine = WebQueryEngine.fromIndex(index);
+        queries = queries(random, 256);
+    }
+
+    private List<String> synthetic(Random random) {
+        Zipf vocabulary = new Zipf(50000, 1.1);
+        List<String> output = new ArrayList<>();
+        for(int i = 0; i < pages; i++) {
+            StringBuilder page = new StringBuilder("<html><body><p>");
+            int length = 100 + random.nextInt(900);
+            for(int j = 0; j < length; j++) {
+                page.append(Zipf.word(vocabulary.next(random)));
+                page.append(j % 15 == 14 ? ". " : " ");
+            }
+            output.add(page.append("</p></body></html>").toString());
+        }
+        return output;
+    }
+
+    private List<String> recorded(Path directory) throws IOException {
+        try(Stream<Path> files = Files.walk(directory)) {
+            List<Path> html = files.filter(p -> p.toString().endsWith(".html"))
+                    .sorted().limit(pages).collect(Collectors.toList());
+            List<String> output = new ArrayList<>();
+            for(Path file: html) {
+                output.add(new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+            }
+            return output;
+        }
+    }
+
+    //Splits raw text into lower case words the same way the crawler does, ignoring markup
+    private static List<String> tokenize(String document) {
+        List<String> output = new ArrayList<>();
+        StringBuilder word = new StringBuilder();
+        boolean inTag = false;
+        for(int i = 0; i <= document.length(); i++) {
+            char c = i < document.length() ? document.charAt(i) : ' ';
+            if(c == '<') {
+                inTag = true;
+            } else if(c == '>') {
+                inTag = false;
+            } else if(!inTag && Character.isLetterOrDigit(c)) {
+                word.append(Character.toLowerCase(c));
+                continue;
+            }
+            if(word.length() > 0) {
+                output.add(word.toString());
+                word = new StringBuilder();
+            }
+        }
+        return output;
+    }
+
+    private String[] queries(Random random, int count) {
+        String[] output = new String[count];
+        for(int i = 0; i < count; i++) {
+            switch(i % 6) {
+                case 0:
+                    output[i] = randomWord(random);
+                    break;
+                case 1:
+                    output[i] = randomPhrase(random);
+                    break;
+                case 2:
+                    output[i] = randomWord(random) + " & " + randomWord(random);
+                    break;
+                case 3:
+                    output[i] = randomWord(random) + " | " + randomPhrase(random);
+                    break;
+                case 4:
+                    output[i] = randomWord(random) + " !" + randomWord(random);
+                    break;
+                default:
+                    output[i] = "(" + randomWord(random) + " | " + randomWord(random) + ") & " +
+                            randomPhrase(random);
+            }
+        }
+        return output;
+    }
+
+    //A word drawn from a random page, so common words are picked more often
+    public String randomWord(Random random) {
+        List<String> page = randomPage(random);
+        return page.get(random.nextInt(page.size()));
+    }
+
+    //Two or three consecutive words from a random page
+    public String randomPhrase(Random random) {
+        List<String> page = randomPage(random);
+        int length = 2 + random.nextInt(2);
+        int start = random.nextInt(Math.max(1, page.size() - length));
+        return "\"" + String.join(" ", page.subList(start, Math.min(page.size(), start + length))) + "\"";
+    }
+
+    private List<String> randomPage(Random random) {
+        List<String> page;
+        do {
+            page = words.get(random.nextInt(words.size()));
+        } while(page.isEmpty());
+        return page;
+    }
+}
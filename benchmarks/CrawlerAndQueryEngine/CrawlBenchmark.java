@@ -0,0 +1,65 @@
+package CrawlerAndQueryEngine;
+
+import java.io.File;
+import java.lang.management.*;
+import java.net.URL;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Crawls a corpus written by CorpusGenerator end to end and reports pages/s, peak heap, index
+ * size and total time.
+ *
+ *   java -cp target/benchmarks.jar CrawlerAndQueryEngine.CrawlBenchmark DIR
+ *
+ * Generate the corpus first, for example with 1000 to 10000000 pages:
+ *
+ *   java -cp target/benchmarks.jar CrawlerAndQueryEngine.CorpusGenerator DIR 100000
+ */
+public class CrawlBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 1) {
+            System.err.println("Usage: CrawlBenchmark DIR");
+            System.exit(1);
+        }
+        URL start = new File(new File(args[0], "d0"), "p0.html").toURI().toURL();
+
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            pool.resetPeakUsage();
+        }
+        long startNanos = System.nanoTime();
+
+        Queue<URL> remaining = new LinkedList<>();
+        remaining.add(start);
+        WebIndex index = (WebIndex) WebCrawler.crawl(remaining, new CrawlingMarkupHandler(), null);
+        long crawlNanos = System.nanoTime() - startNanos;
+
+        File saved = File.createTempFile("index", ".db");
+        saved.deleteOnExit();
+        index.save(saved.getPath());
+        long totalNanos = System.nanoTime() - startNanos;
+
+        LongAdder pages = Metrics.counter("tsoogle_crawl_pages_total", "Pages fetched by the crawler");
+        LongAdder bytes = Metrics.counter("tsoogle_crawl_bytes_total", "Bytes fetched by the crawler");
+        System.out.printf("pages crawled:   %d%n", pages.sum());
+        System.out.printf("pages indexed:   %d%n", index.size());
+        System.out.printf("bytes fetched:   %d%n", bytes.sum());
+        System.out.printf("crawl time:      %.2f s%n", crawlNanos / 1e9);
+        System.out.printf("pages/s:         %.1f%n", pages.sum() / (crawlNanos / 1e9));
+        System.out.printf("peak heap:       %d MB%n", peakHeap() >> 20);
+        System.out.printf("index size:      %d bytes%n", saved.length());
+        System.out.printf("total time:      %.2f s%n", totalNanos / 1e9);
+    }
+
+    //Sum of the peak usage of every heap memory pool since the start of the run
+    private static long peakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+}
@@ -0,0 +1,38 @@
+package CrawlerAndQueryEngine;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures saving and loading a whole index with Index.save and Index.load.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Thread)
+public class IndexIOBenchmark {
+    private WebIndex index;
+    private File file;
+
+    @Setup(Level.Trial)
+    public void setUp(CorpusState corpus) throws Exception {
+        index = corpus.index;
+        file = File.createTempFile("index", ".db");
+        file.deleteOnExit();
+        index.save(file.getPath());
+    }
+
+    @Benchmark
+    public void save() throws Exception {
+        index.save(file.getPath());
+    }
+
+    @Benchmark
+    public Index load() throws Exception {
+        return Index.load(file.getPath());
+    }
+}
@@ -0,0 +1,210 @@
+package CrawlerAndQueryEngine;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Sends search queries to a running WebServer at a target rate and reports latency percentiles
+ * and throughput.
+ *
+ *   java -cp target/benchmarks.jar CrawlerAndQueryEngine.LoadGenerator [options]
+ *
+ *   --host HOST        server to query (localhost)
+ *   --port PORT        server port (1989)
+ *   --qps N            target queries per second (100)
+ *   --duration S       seconds to run for, after warm-up (30)
+ *   --warmup S         seconds of load that isn't measured (5)
+ *   --threads N        client threads (16)
+ *   --mode MODE        open or closed (open)
+ *   --log FILE         replay the queries in FILE, one per line, instead of synthetic ones
+ *
+ * In open mode, requests are scheduled at fixed intervals whatever the server does, and latency
+ * is measured from when a request was due to be sent, so a stalled server can't hide its delay
+ * by slowing the client down (coordinated omission). In closed mode, each thread sends its next
+ * query as soon as the last one is answered, pacing itself to its share of the target rate, and
+ * the histogram adds the requests a slow response held up.
+ *
+ * Synthetic queries use the same Zipfian vocabulary as CorpusGenerator and mix words, phrases,
+ * &, |, ! and parentheses.
+ */
+public class LoadGenerator {
+    private String host = "localhost";
+    private int port = 1989;
+    private double qps = 100;
+    private int durationSeconds = 30;
+    private int warmupSeconds = 5;
+    private int threads = 16;
+    private boolean open = true;
+    private List<String> log = null;
+
+    private final Zipf vocabulary = new Zipf(200000, 1.07);
+    private final AtomicLong nextQuery = new AtomicLong();
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+
+    public static void main(String[] args) throws Exception {
+        LoadGenerator generator = new LoadGenerator();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--host": generator.host = value; break;
+                case "--port": generator.port = Integer.parseInt(value); break;
+                case "--qps": generator.qps = Double.parseDouble(value); break;
+                case "--duration": generator.durationSeconds = Integer.parseInt(value); break;
+                case "--warmup": generator.warmupSeconds = Integer.parseInt(value); break;
+                case "--threads": generator.threads = Integer.parseInt(value); break;
+                case "--mode": generator.open = value.equals("open"); break;
+                case "--log":
+                    generator.log = Files.readAllLines(Paths.get(value), StandardCharsets.UTF_8);
+                    break;
+                default:
+                    System.err.printf("Error: Unknown option '%s'.%n", args[i]);
+                    System.exit(1);
+            }
+        }
+        generator.run();
+    }
+
+    private void run() throws Exception {
+        long intervalNanos = (long) (1e9 / qps);
+        long startNanos = System.nanoTime();
+        long measureNanos = startNanos + warmupSeconds * 1000000000L;
+        long endNanos = measureNanos + durationSeconds * 1000000000L;
+
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            workers.submit(() -> {
+                if (open) {
+                    runOpen(startNanos, measureNanos, endNanos, intervalNanos);
+                } else {
+                    runClosed(thread, startNanos, measureNanos, endNanos, intervalNanos * threads);
+                }
+                return null;
+            });
+        }
+        workers.shutdown();
+        workers.awaitTermination(durationSeconds + warmupSeconds + 60, TimeUnit.SECONDS);
+        // Measure over the time the run actually took, which is longer if the server fell behind
+        double seconds = (Math.max(endNanos, System.nanoTime()) - measureNanos) / 1e9;
+
+        System.out.printf("mode:        %s, target %.0f qps, %d threads%n",
+                open ? "open" : "closed", qps, threads);
+        System.out.printf("throughput:  %.1f qps over %.1f s%n", completed.sum() / seconds, seconds);
+        System.out.printf("completed:   %d (%d rejected, %d errors)%n",
+                completed.sum(), rejected.sum(), errors.sum());
+        System.out.printf("p50:         %.3f ms%n", latency.getPercentile(0.5) / 1e6);
+        System.out.printf("p99:         %.3f ms%n", latency.getPercentile(0.99) / 1e6);
+        System.out.printf("p999:        %.3f ms%n", latency.getPercentile(0.999) / 1e6);
+        System.out.printf("max:         %.3f ms%n", latency.getMax() / 1e6);
+    }
+
+    // Every thread takes the next slot of one shared schedule
+    private void runOpen(long startNanos, long measureNanos, long endNanos, long intervalNanos)
+            throws InterruptedException {
+        while (true) {
+            long query = nextQuery.getAndIncrement();
+            long dueNanos = startNanos + query * intervalNanos;
+            if (dueNanos >= endNanos) {
+                return;
+            }
+            sleepUntil(dueNanos);
+            boolean ok = send(query(query));
+            if (dueNanos >= measureNanos) {
+                record(ok, System.nanoTime() - dueNanos, 0);
+            }
+        }
+    }
+
+    private void runClosed(int thread, long startNanos, long measureNanos, long endNanos,
+            long intervalNanos) throws InterruptedException {
+        long dueNanos = startNanos + thread * intervalNanos / threads;
+        while (dueNanos < endNanos) {
+            sleepUntil(dueNanos);
+            long sentNanos = System.nanoTime();
+            boolean ok = send(query(nextQuery.getAndIncrement()));
+            if (sentNanos >= measureNanos) {
+                record(ok, System.nanoTime() - sentNanos, intervalNanos);
+            }
+            dueNanos = Math.max(dueNanos + intervalNanos, System.nanoTime());
+        }
+    }
+
+    private void record(boolean ok, long nanos, long expectedIntervalNanos) {
+        if (ok) {
+            latency.record(nanos, expectedIntervalNanos);
+            completed.increment();
+        }
+    }
+
+    private static void sleepUntil(long nanos) throws InterruptedException {
+        long remaining = nanos - System.nanoTime();
+        if (remaining > 0) {
+            TimeUnit.NANOSECONDS.sleep(remaining);
+        }
+    }
+
+    /**
+     * Sends one query, reading the whole response. Returns whether it was answered successfully.
+     */
+    private boolean send(String query) {
+        try (Socket socket = new Socket(host, port)) {
+            socket.setSoTimeout(30000);
+            OutputStream out = socket.getOutputStream();
+            out.write(("GET /search?query=" + URLEncoder.encode(query, "UTF-8") +
+                    " HTTP/1.0\r\nHost: " + host + "\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+            out.flush();
+
+            InputStream in = socket.getInputStream();
+            byte[] buffer = new byte[8192];
+            int n = in.read(buffer);
+            String status = n > 0 ? new String(buffer, 0, Math.min(n, 16), StandardCharsets.ISO_8859_1) : "";
+            while (n >= 0) {
+                n = in.read(buffer);
+            }
+            if (status.startsWith("HTTP/1.0 503") || status.startsWith("HTTP/1.1 503")) {
+                rejected.increment();
+                return false;
+            }
+            return status.contains(" 200");
+        } catch (IOException e) {
+            errors.increment();
+            return false;
+        }
+    }
+
+    private String query(long index) {
+        if (log != null) {
+            return log.get((int) (index % log.size()));
+        }
+        Random random = ThreadLocalRandom.current();
+        switch (random.nextInt(8)) {
+            case 0:
+            case 1:
+                return word(random);
+            case 2:
+                return "\"" + word(random) + " " + word(random) + "\"";
+            case 3:
+                return word(random) + " & " + word(random);
+            case 4:
+                return word(random) + " | " + word(random);
+            case 5:
+                return word(random) + " !" + word(random);
+            case 6:
+                return "(" + word(random) + " | " + word(random) + ") & " + word(random);
+            default:
+                return word(random) + " " + word(random);
+        }
+    }
+
+    private String word(Random random) {
+        return Zipf.word(vocabulary.next(random));
+    }
+}
@@ -0,0 +1,69 @@
+package CrawlerAndQueryEngine;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures each step of WebQueryEngine on a mix of word, phrase, and, or, not and grouped queries,
+ * and answering the whole mix one query at a time against answering it as a batch.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class QueryEngineBenchmark {
+    private WebQueryEngine engine;
+    private String[] queries;
+    private List<List<String>> tokens;
+    private int next = 0;
+
+    @Setup(Level.Trial)
+    public void setUp(CorpusState corpus) {
+        engine = corpus.engine;
+        queries = corpus.queries;
+        tokens = new ArrayList<>();
+        for(String query: queries) {
+            tokens.add(engine.tokenize(query));
+        }
+    }
+
+    private int nextQuery() {
+        int query = next;
+        next = (next + 1) % queries.length;
+        return query;
+    }
+
+    @Benchmark
+    public List<String> tokenize() {
+        return engine.tokenize(queries[nextQuery()]);
+    }
+
+    @Benchmark
+    public List<String> postFix() {
+        return engine.postFix(tokens.get(nextQuery()));
+    }
+
+    @Benchmark
+    public Set<Page> query() {
+        return engine.query(queries[nextQuery()]);
+    }
+
+    //The whole query mix answered one query at a time, to compare with queryBatch
+    @Benchmark
+    public List<Set<Page>> queryEach() {
+        List<Set<Page>> output = new ArrayList<>(queries.length);
+        for(String query: queries) {
+            output.add(engine.query(query));
+        }
+        return output;
+    }
+
+    @Benchmark
+    public List<Set<Page>> queryBatch() {
+        return engine.queryBatch(Arrays.asList(queries));
+    }
+}
@@ -0,0 +1,50 @@
+package CrawlerAndQueryEngine;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures WebIndex.search for single words, phrases and negated words.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class SearchBenchmark {
+    @Param({"word", "phrase", "not"})
+    public String kind;
+
+    private WebIndex index;
+    private String[] searches;
+    private int next = 0;
+
+    @Setup(Level.Trial)
+    public void setUp(CorpusState corpus) {
+        index = corpus.index;
+        Random random = new Random(7);
+        searches = new String[256];
+        for(int i = 0; i < searches.length; i++) {
+            switch(kind) {
+                case "phrase":
+                    searches[i] = corpus.randomPhrase(random);
+                    break;
+                case "not":
+                    searches[i] = "!" + corpus.randomWord(random);
+                    break;
+                default:
+                    searches[i] = corpus.randomWord(random);
+            }
+        }
+    }
+
+    @Benchmark
+    public Set<Page> search() {
+        String search = searches[next];
+        next = (next + 1) % searches.length;
+        return index.search(search);
+    }
+}
@@ -0,0 +1,37 @@
+package CrawlerAndQueryEngine;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures how fast CrawlingMarkupHandler.handleText splits page text into words.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class TokenizeBenchmark {
+    private CrawlingMarkupHandler handler;
+    private char[][] pages;
+    private int next = 0;
+
+    @Setup(Level.Trial)
+    public void setUp(CorpusState corpus) {
+        handler = new CrawlingMarkupHandler();
+        pages = new char[corpus.documents.size()][];
+        for(int i = 0; i < pages.length; i++) {
+            pages[i] = corpus.documents.get(i).toCharArray();
+        }
+    }
+
+    @Benchmark
+    public void handleText() {
+        char[] page = pages[next];
+        next = (next + 1) % pages.length;
+        handler.handleDocumentStart(0, 1, 1);
+        handler.handleText(page, 0, page.length, 1, 1);
+    }
+}
@@ -0,0 +1,39 @@
+package CrawlerAndQueryEngine;
+
+import java.util.Random;
+
+/**
+ * Draws ranks 0..n-1 from an approximate Zipf (power-law) distribution, where rank r is chosen
+ * with probability proportional to 1 / (r + 1)^exponent. Uses the inverse of the continuous CDF,
+ * so sampling takes constant time and memory for any n.
+ */
+public class Zipf {
+    private final int n;
+    private final double exponent;
+    private final double range;
+
+    public Zipf(int n, double exponent) {
+        this.n = n;
+        this.exponent = exponent;
+        this.range = exponent == 1 ? Math.log(n + 1) : Math.pow(n + 1, 1 - exponent) - 1;
+    }
+
+    public int next(Random random) {
+        double u = random.nextDouble();
+        double x = exponent == 1 ? Math.exp(u * range)
+                : Math.pow(1 + u * range, 1 / (1 - exponent));
+        return Math.min(n - 1, Math.max(0, (int) x - 1));
+    }
+
+    //A deterministic, pronounceable word for the given vocabulary rank
+    public static String word(int rank) {
+        String[] syllables = {"ka", "lo", "mi", "ne", "ru", "sa", "ti", "vo", "ze", "po",
+                "an", "el", "is", "or", "um", "bri", "cha", "dre", "fla", "gru"};
+        StringBuilder word = new StringBuilder();
+        do {
+            word.append(syllables[rank % syllables.length]);
+            rank /= syllables.length;
+        } while(rank > 0);
+        return word.toString();
+    }
+}